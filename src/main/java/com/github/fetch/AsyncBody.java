@@ -0,0 +1,30 @@
+package com.github.fetch;
+
+import java.io.IOException;
+import java.util.function.Consumer;
+
+/**
+ * A response body whose bytes are received by I/O callbacks. Besides the
+ * blocking methods of its InputStream, it can be read without holding a
+ * thread while waiting for the server: bytes already received are copied
+ * with {@link #readReceived(byte[], int, int)}, and more are asked for with
+ * {@link #receive(Runnable, Consumer)}.
+ */
+interface AsyncBody {
+
+	/**
+	 * Copy bytes already received
+	 *
+	 * @return the number of bytes copied, -1 at the end of the body, which is
+	 *         then released, or 0 if more bytes must be received first
+	 * @throws IOException if the body is malformed or closed
+	 */
+	int readReceived(byte[] b, int off, int len) throws IOException;
+
+	/**
+	 * Receive more bytes, then call <code>onReceived</code>, or
+	 * <code>onError</code> with the body released. The callbacks run in an I/O
+	 * thread, and must not block.
+	 */
+	void receive(Runnable onReceived, Consumer<Exception> onError);
+}
@@ -0,0 +1,130 @@
+package com.github.fetch;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+import com.github.promise.Promise;
+import com.github.promise.Status;
+
+/**
+ * A pull-based reader of a response body, the equivalent of JavaScript's
+ * <code>ReadableStreamDefaultReader</code>.
+ * 
+ * Each call to {@link #read()} returns a promise of the next chunk, or of null
+ * at the end of the body. Bytes are read from the connection only when a chunk
+ * is requested, so a slow consumer slows down the producer (backpressure), and
+ * memory stays bounded by the chunk size. Reads are served in the order they
+ * were requested.
+ */
+public class BodyReader implements AutoCloseable {
+
+	private final InputStream in;
+	private final int chunkSize;
+
+	// guarded by this
+	private Promise<ByteBuffer> last;
+	private boolean closed;
+
+	BodyReader(InputStream in, int chunkSize) {
+		if (chunkSize < 1) {
+			throw new IllegalArgumentException("chunkSize must be positive: " + chunkSize);
+		}
+		this.in = in;
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * Return a promise of the next chunk of the body, or of null if the end of
+	 * the body was reached. The returned buffer is ready to be read, and belongs
+	 * to the caller.
+	 */
+	public synchronized Promise<ByteBuffer> read() {
+		Promise<ByteBuffer> previous = last;
+		if (previous == null || previous.getStatus() != Status.PENDING) {
+			last = readChunk();
+		} else {
+			last = previous.thenPromise((chunk) -> readChunk());
+		}
+		return last;
+	}
+
+	/**
+	 * Stop reading, and release the connection
+	 */
+	@Override
+	public synchronized void close() {
+		if (!closed) {
+			closed = true;
+			try {
+				if (in != null) {
+					in.close();
+				}
+			} catch (IOException e) {
+				// ignore
+			}
+		}
+	}
+
+	private Promise<ByteBuffer> readChunk() {
+		if (in instanceof AsyncBody) {
+			// received by I/O callbacks: no need for a thread either
+			FetchPromise<ByteBuffer> chunk = new FetchPromise<>(null);
+			readAsync((AsyncBody) in, new byte[chunkSize], chunk);
+			return chunk;
+		}
+		if (in instanceof ByteArrayInputStream) {
+			// already in memory: no need for a thread
+			try {
+				return Promise.resolve(nextChunk());
+			} catch (IOException e) {
+				return Promise.reject(e);
+			}
+		}
+		return new Promise<>((resolve, reject) -> {
+			try {
+				resolve.accept(nextChunk());
+			} catch (IOException e) {
+				reject.accept(e);
+			}
+		});
+	}
+
+	private void readAsync(AsyncBody body, byte[] bytes, FetchPromise<ByteBuffer> chunk) {
+		synchronized (this) {
+			if (closed) {
+				chunk.fulfill(null);
+				return;
+			}
+		}
+		try {
+			int n = body.readReceived(bytes, 0, bytes.length);
+			if (n < 0) {
+				close();
+				chunk.fulfill(null);
+			} else if (n > 0) {
+				chunk.fulfill(ByteBuffer.wrap(bytes, 0, n));
+			} else {
+				body.receive(() -> readAsync(body, bytes, chunk), chunk::fail);
+			}
+		} catch (IOException e) {
+			chunk.fail(e);
+		}
+	}
+
+	private ByteBuffer nextChunk() throws IOException {
+		synchronized (this) {
+			if (closed || in == null) {
+				return null;
+			}
+		}
+		byte[] bytes = new byte[chunkSize];
+		int n = in.read(bytes);
+		if (n < 0) {
+			close();
+			return null;
+		}
+		return ByteBuffer.wrap(bytes, 0, n);
+	}
+}
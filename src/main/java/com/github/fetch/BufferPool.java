@@ -0,0 +1,105 @@
+package com.github.fetch;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A pool of reusable ByteBuffer's of the same size, to avoid allocating (and
+ * garbage collecting) a buffer for each request. Direct buffers are especially
+ * worth pooling, as they are expensive to allocate.
+ * 
+ * Buffers are taken with {@link #acquire()} and must be given back with
+ * {@link #release(ByteBuffer)} when no more used. At most
+ * <code>maxPooled</code> free buffers are kept; the others are left to the
+ * garbage collector.
+ */
+public class BufferPool {
+
+	private static volatile BufferPool defaultPool = new BufferPool(64 * 1024, 64, true);
+
+	private final int bufferSize;
+	private final int maxPooled;
+	private final boolean direct;
+	private final ConcurrentLinkedQueue<ByteBuffer> free = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger freeCount = new AtomicInteger();
+
+	/**
+	 * Constructor
+	 * 
+	 * @param bufferSize size of each buffer, in bytes
+	 * @param maxPooled  max number of free buffers kept
+	 * @param direct     true for direct buffers, false for heap buffers
+	 */
+	public BufferPool(int bufferSize, int maxPooled, boolean direct) {
+		if (bufferSize < 1) {
+			throw new IllegalArgumentException("bufferSize must be positive: " + bufferSize);
+		}
+		this.bufferSize = bufferSize;
+		this.maxPooled = maxPooled;
+		this.direct = direct;
+	}
+
+	/**
+	 * The pool used when none is given: 64 KiB direct buffers, at most 64 kept
+	 */
+	public static BufferPool getDefault() {
+		return defaultPool;
+	}
+
+	/**
+	 * Set the pool used when none is given
+	 * 
+	 * @param pool
+	 */
+	public static void setDefault(BufferPool pool) {
+		if (pool == null) {
+			throw new NullPointerException("pool");
+		}
+		defaultPool = pool;
+	}
+
+	public int getBufferSize() {
+		return bufferSize;
+	}
+
+	public boolean isDirect() {
+		return direct;
+	}
+
+	/**
+	 * Number of free buffers in the pool
+	 */
+	public int getFreeCount() {
+		return freeCount.get();
+	}
+
+	/**
+	 * Take a cleared buffer from the pool, or allocate a new one
+	 */
+	public ByteBuffer acquire() {
+		ByteBuffer buffer = free.poll();
+		if (buffer == null) {
+			return direct ? ByteBuffer.allocateDirect(bufferSize) : ByteBuffer.allocate(bufferSize);
+		}
+		freeCount.decrementAndGet();
+		buffer.clear();
+		return buffer;
+	}
+
+	/**
+	 * Give back a buffer taken from this pool. It must not be used anymore.
+	 * 
+	 * @param buffer
+	 */
+	public void release(ByteBuffer buffer) {
+		if (buffer == null || buffer.capacity() != bufferSize || buffer.isDirect() != direct) {
+			return;
+		}
+		if (freeCount.incrementAndGet() <= maxPooled) {
+			free.offer(buffer);
+		} else {
+			freeCount.decrementAndGet();
+		}
+	}
+}
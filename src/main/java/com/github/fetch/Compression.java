@@ -0,0 +1,291 @@
+package com.github.fetch;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.function.Supplier;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterInputStream;
+import java.util.zip.Inflater;
+
+import com.github.promise.AbortSignal;
+import com.github.promise.Promise;
+import com.github.promise.Status;
+
+/**
+ * Content encoding of requests and responses, with pools of Inflater and
+ * Deflater instances: each one holds native memory, which is only freed by
+ * <code>end()</code> or the garbage collector.
+ */
+class Compression {
+
+	static final String ACCEPT_ENCODING = "gzip, deflate";
+
+	private static final int MAX_POOLED = 32;
+	private static final int BUFFER_SIZE = 8 * 1024;
+	private static final byte[] GZIP_HEADER = { 0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, (byte) 0xff };
+
+	private static final ObjectPool<Inflater> inflaters = new ObjectPool<>(MAX_POOLED, () -> new Inflater(false),
+			Inflater::end);
+	private static final ObjectPool<Inflater> rawInflaters = new ObjectPool<>(MAX_POOLED, () -> new Inflater(true),
+			Inflater::end);
+	private static final ObjectPool<Deflater> deflaters = new ObjectPool<>(MAX_POOLED,
+			() -> new Deflater(Deflater.DEFAULT_COMPRESSION, true), Deflater::end);
+
+	private Compression() {
+	}
+
+	/**
+	 * Take an inflater from the pool
+	 *
+	 * @param nowrap true for raw deflate data, as in gzip
+	 */
+	static Inflater acquireInflater(boolean nowrap) {
+		return (nowrap ? rawInflaters : inflaters).acquire();
+	}
+
+	/**
+	 * Reset an inflater and give it back to the pool
+	 *
+	 * @param inflater
+	 * @param nowrap   as given to {@link #acquireInflater(boolean)}
+	 */
+	static void releaseInflater(Inflater inflater, boolean nowrap) {
+		inflater.reset();
+		(nowrap ? rawInflaters : inflaters).release(inflater);
+	}
+
+	static Deflater acquireDeflater() {
+		return deflaters.acquire();
+	}
+
+	static void releaseDeflater(Deflater deflater) {
+		deflater.reset();
+		deflaters.release(deflater);
+	}
+
+	/**
+	 * Number of free inflaters and deflaters in the pools
+	 */
+	static int getFreeCount() {
+		return inflaters.getFreeCount() + rawInflaters.getFreeCount() + deflaters.getFreeCount();
+	}
+
+	/**
+	 * A transport decorator compressing request bodies when asked, and optionally
+	 * adding <code>Accept-Encoding</code> to requests and decompressing responses
+	 */
+	static class Transport implements FetchTransport {
+		private final FetchTransport delegate;
+		private final boolean decompress;
+
+		Transport(FetchTransport delegate, boolean decompress) {
+			this.delegate = delegate;
+			this.decompress = decompress;
+		}
+
+		@Override
+		public Promise<Response> send(Request req, AbortSignal signal) {
+			boolean accept = decompress && header(req, "Accept-Encoding") == null;
+			boolean compress = req.isCompressBody() && !req.getRequestBody().isEmpty()
+					&& header(req, "Content-Encoding") == null;
+			if (!accept && !compress) {
+				return delegate.send(req, signal);
+			}
+			Request sent = req.copy();
+			if (accept) {
+				sent.getHeaders().put("Accept-Encoding", ACCEPT_ENCODING);
+			}
+			if (compress) {
+				try {
+					sent.setBody(gzip(req.getRequestBody()));
+				} catch (IOException e) {
+					return Promise.reject(e);
+				}
+				sent.getHeaders().put("Content-Encoding", "gzip");
+			}
+			Promise<Response> response = delegate.send(sent, signal);
+			if (!accept || response.getStatus() == Status.REJECTED) {
+				// an error has nothing to decode
+				return response;
+			}
+			return response.thenPromise((resp) -> {
+				try {
+					return Promise.resolve(decode(req, resp));
+				} catch (IOException e) {
+					return Promise.reject(e);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Replace the body of given response by its decompressed stream, if it has a
+	 * supported content encoding. <code>Content-Encoding</code> and
+	 * <code>Content-Length</code> headers are removed, as they describe the
+	 * compressed body.
+	 */
+	static Response decode(Request req, Response resp) throws IOException {
+		String encoding = resp.getHeader("Content-Encoding");
+		if (encoding == null || resp.getBody() == null || "HEAD".equals(req.getMethod())) {
+			return resp;
+		}
+		encoding = encoding.trim().toLowerCase(Locale.ROOT);
+		if (encoding.equals("gzip") || encoding.equals("x-gzip")) {
+			resp.setBody(InflatingInputStream.gzip(resp.getBody()));
+		} else if (encoding.equals("deflate")) {
+			resp.setBody(InflatingInputStream.deflate(resp.getBody()));
+		} else {
+			return resp;
+		}
+		Map<String, List<String>> headers = new LinkedHashMap<>();
+		for (Entry<String, List<String>> entry : resp.getHeaders().entrySet()) {
+			String name = entry.getKey();
+			if (name == null || !(name.equalsIgnoreCase("Content-Encoding") || name.equalsIgnoreCase("Content-Length"))) {
+				headers.put(name, entry.getValue());
+			}
+		}
+		resp.setHeaders(headers);
+		return resp;
+	}
+
+	/**
+	 * A gzip body compressing the given one. A body in memory is compressed at
+	 * once, to be sent with a known length; other bodies are compressed as they
+	 * are sent.
+	 */
+	static RequestBody gzip(RequestBody body) throws IOException {
+		if (body instanceof RequestBody.BytesBody) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			try (InputStream in = new GzipStream(body.openStream())) {
+				byte[] buffer = new byte[BUFFER_SIZE];
+				int n;
+				while ((n = in.read(buffer)) >= 0) {
+					out.write(buffer, 0, n);
+				}
+			}
+			return RequestBody.of(out.toByteArray());
+		}
+		return new GzipBody(body);
+	}
+
+	/**
+	 * A body compressed as it is sent
+	 */
+	private static class GzipBody extends RequestBody {
+		private final RequestBody body;
+
+		GzipBody(RequestBody body) {
+			this.body = body;
+		}
+
+		@Override
+		public long contentLength() {
+			return -1;
+		}
+
+		@Override
+		public InputStream openStream() throws IOException {
+			return new GzipStream(body.openStream());
+		}
+
+		@Override
+		boolean isReplayable() {
+			return body.isReplayable();
+		}
+	}
+
+	/**
+	 * Reads the gzip compressed bytes of a stream, with a pooled deflater
+	 */
+	private static class GzipStream extends SequenceInputStream {
+		private final Deflater deflater;
+		private boolean closed;
+
+		GzipStream(InputStream in) {
+			this(in, acquireDeflater(), new CRC32());
+		}
+
+		private GzipStream(InputStream in, Deflater deflater, CRC32 crc) {
+			super(parts(in, deflater, crc));
+			this.deflater = deflater;
+		}
+
+		private static Enumeration<InputStream> parts(InputStream in, Deflater deflater, CRC32 crc) {
+			InputStream checked = new FilterInputStream(in) {
+				@Override
+				public int read() throws IOException {
+					byte[] b = new byte[1];
+					return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+				}
+
+				@Override
+				public int read(byte[] b, int off, int len) throws IOException {
+					int n = super.read(b, off, len);
+					if (n > 0) {
+						crc.update(b, off, n);
+					}
+					return n;
+				}
+			};
+			Iterator<Supplier<InputStream>> parts = Arrays.<Supplier<InputStream>>asList(
+					() -> new ByteArrayInputStream(GZIP_HEADER),
+					() -> new DeflaterInputStream(checked, deflater, BUFFER_SIZE),
+					// the trailer is computed once the body is read
+					() -> new ByteArrayInputStream(trailer(crc.getValue(), deflater.getBytesRead()))).iterator();
+			return new Enumeration<InputStream>() {
+				@Override
+				public boolean hasMoreElements() {
+					return parts.hasNext();
+				}
+
+				@Override
+				public InputStream nextElement() {
+					return parts.next().get();
+				}
+			};
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (!closed) {
+				closed = true;
+				try {
+					super.close();
+				} finally {
+					releaseDeflater(deflater);
+				}
+			}
+		}
+	}
+
+	private static byte[] trailer(long crc, long size) {
+		byte[] trailer = new byte[8];
+		for (int i = 0; i < 4; i++) {
+			trailer[i] = (byte) (crc >>> (8 * i));
+			trailer[4 + i] = (byte) (size >>> (8 * i));
+		}
+		return trailer;
+	}
+
+	private static String header(Request req, String name) {
+		for (Entry<String, String> header : req.getHeaders().entrySet()) {
+			if (header.getKey().equalsIgnoreCase(name)) {
+				return header.getValue();
+			}
+		}
+		return null;
+	}
+}
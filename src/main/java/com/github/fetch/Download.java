@@ -0,0 +1,245 @@
+package com.github.fetch;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.github.promise.AbortController;
+import com.github.promise.AbortSignal;
+import com.github.promise.Promise;
+
+/**
+ * A download split in byte ranges, fetched concurrently and written at their
+ * position in a preallocated file.
+ * 
+ * Cancelling the download, or a failed segment, aborts all requests and
+ * cancels all segments before the file is closed. A server ignoring the ranges
+ * it advertised gets a single GET instead.
+ */
+class Download {
+
+	private final String url;
+	private final Path file;
+	private final DownloadOptions options;
+	private final AbortSignal caller = AbortSignal.current();
+	// aborts all requests of this download when it is cancelled
+	private final AbortController stop = new AbortController();
+	private final AbortSignal signal = AbortSignal.any(caller, stop.getSignal());
+	private final FetchPromise<Long> result = new FetchPromise<>(caller, stop::abort);
+
+	Download(String url, Path file, DownloadOptions options) {
+		this.url = url;
+		this.file = file;
+		this.options = options;
+	}
+
+	private Request request() {
+		Request request = new Request(url);
+		request.setSignal(signal);
+		// byte ranges and lengths must be those of the file, not of a compressed body
+		request.getHeaders().put("Accept-Encoding", "identity");
+		return request;
+	}
+
+	Promise<Long> start() {
+		Request probe = request();
+		probe.setMethod("HEAD");
+		// a server not answering HEAD gets a single GET
+		Fetch.fetch(probe).done(this::afterProbe, (error) -> afterProbe(null));
+		return result;
+	}
+
+	private void afterProbe(Response response) {
+		if (result.isDone()) {
+			return;
+		}
+		long length = contentLength(response);
+		boolean ranges = response != null && response.ok()
+				&& "bytes".equalsIgnoreCase(response.getHeader("Accept-Ranges"));
+		int segments = (int) Math.min(options.getSegments(), length / options.getMinSegmentSize());
+		if (!ranges || length <= 0 || segments < 2) {
+			fetchWhole();
+		} else {
+			download(length, segments);
+		}
+	}
+
+	/**
+	 * Download with a single GET
+	 */
+	private void fetchWhole() {
+		Fetch.fetch(request()).thenPromise((r) -> {
+			if (!r.ok()) {
+				close(r);
+				return Promise.<Long>reject(new IOException("HTTP " + r.getStatus() + " downloading " + url));
+			}
+			return r.toFile(file);
+		}).done(result::fulfill, result::fail);
+	}
+
+	private static long contentLength(Response response) {
+		String value = response == null ? null : response.getHeader("Content-Length");
+		try {
+			return value == null ? -1 : Long.parseLong(value.trim());
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private void download(long length, int count) {
+		FileChannel channel;
+		try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+			raf.setLength(length);
+			channel = FileChannel.open(file, StandardOpenOption.WRITE);
+		} catch (IOException e) {
+			result.fail(e);
+			return;
+		}
+
+		AbortController ranged = new AbortController();
+		AbortSignal rangedSignal = AbortSignal.any(signal, ranged.getSignal());
+		Promise<Long>[] segments = (Promise<Long>[]) new Promise<?>[count];
+		AtomicBoolean rangesIgnored = new AtomicBoolean();
+		// abort the requests and cancel the segments, only then close the file
+		Runnable stopSegments = () -> {
+			ranged.abort();
+			for (Promise<Long> segment : segments) {
+				if (segment != null) {
+					segment.cancel(true);
+				}
+			}
+			close(channel);
+		};
+		Runnable ignored = () -> {
+			if (rangesIgnored.compareAndSet(false, true)) {
+				stopSegments.run();
+			}
+		};
+		signal.addAbortListener(stopSegments);
+
+		long size = length / count;
+		for (int i = 0; i < count; i++) {
+			long start = i * size;
+			long end = i == count - 1 ? length - 1 : start + size - 1;
+			Segment segment = new Segment(channel, rangedSignal, ignored, start, end);
+			segments[i] = Promise.retry(segment::fetch, options.getRetryPolicy());
+		}
+
+		Promise.all(segments).done((sizes) -> {
+			signal.removeAbortListener(stopSegments);
+			close(channel);
+			result.fulfill(length);
+		}, (error) -> {
+			signal.removeAbortListener(stopSegments);
+			stopSegments.run();
+			if (rangesIgnored.get() && !result.isDone()) {
+				fetchWhole();
+			} else {
+				result.fail(error);
+			}
+		});
+	}
+
+	private static void close(FileChannel channel) {
+		try {
+			channel.close();
+		} catch (IOException e) {
+			// ignore
+		}
+	}
+
+	private static void close(Response response) {
+		try {
+			if (response.getBody() != null) {
+				response.getBody().close();
+			}
+		} catch (IOException e) {
+			// ignore
+		}
+	}
+
+	/**
+	 * A byte range, that can be resumed from its last written byte
+	 */
+	private class Segment {
+		private final FileChannel channel;
+		private final AbortSignal signal;
+		private final Runnable rangesIgnored;
+		private final long end;
+		private volatile long next;
+
+		/**
+		 * @param channel
+		 * @param signal        the signal of the segment requests
+		 * @param rangesIgnored called if the server sends the whole resource
+		 * @param start
+		 * @param end
+		 */
+		Segment(FileChannel channel, AbortSignal signal, Runnable rangesIgnored, long start, long end) {
+			this.channel = channel;
+			this.signal = signal;
+			this.rangesIgnored = rangesIgnored;
+			this.next = start;
+			this.end = end;
+		}
+
+		/**
+		 * Fetch the remaining bytes of this segment
+		 */
+		Promise<Long> fetch() {
+			if (next > end) {
+				return Promise.resolve(0L);
+			}
+			Request request = request();
+			request.setSignal(signal);
+			request.getHeaders().put("Range", "bytes=" + next + "-" + end);
+			return Fetch.fetch(request).thenPromise((response) -> new Promise<>((resolve, reject) -> {
+				try {
+					if (response.getStatus() != 206) {
+						close(response);
+						if (response.getStatus() == 200) {
+							rangesIgnored.run();
+						}
+						throw new IOException("HTTP " + response.getStatus() + " instead of 206 for range of " + url);
+					}
+					resolve.accept(write(response.getBody()));
+				} catch (IOException e) {
+					reject.accept(e);
+				}
+			}));
+		}
+
+		private long write(InputStream body) throws IOException {
+			BufferPool pool = BufferPool.getDefault();
+			ByteBuffer buffer = pool.acquire();
+			long written = 0;
+			try (ReadableByteChannel in = Channels.newChannel(body)) {
+				while (next <= end) {
+					buffer.clear();
+					buffer.limit((int) Math.min(buffer.capacity(), end - next + 1));
+					if (in.read(buffer) < 0) {
+						throw new IOException("Connection closed at byte " + next + " of " + url);
+					}
+					buffer.flip();
+					while (buffer.hasRemaining()) {
+						int n = channel.write(buffer, next);
+						next += n;
+						written += n;
+					}
+				}
+				return written;
+			} finally {
+				pool.release(buffer);
+			}
+		}
+
+	}
+}
@@ -0,0 +1,57 @@
+package com.github.fetch;
+
+import com.github.promise.RetryPolicy;
+
+/**
+ * Options of {@link Fetch#download(String, java.nio.file.Path, DownloadOptions)}
+ */
+public class DownloadOptions {
+
+	private int segments = 4;
+	private long minSegmentSize = 1024 * 1024;
+	private RetryPolicy retryPolicy = new RetryPolicy(5, 100, 5000);
+
+	public int getSegments() {
+		return segments;
+	}
+
+	/**
+	 * Set the max number of byte ranges downloaded concurrently, default 4
+	 * 
+	 * @param segments
+	 */
+	public void setSegments(int segments) {
+		if (segments < 1) {
+			throw new IllegalArgumentException("segments must be at least 1: " + segments);
+		}
+		this.segments = segments;
+	}
+
+	public long getMinSegmentSize() {
+		return minSegmentSize;
+	}
+
+	/**
+	 * Set the min size of each byte range, default 1 MiB. Smaller resources are
+	 * downloaded with fewer segments.
+	 * 
+	 * @param minSegmentSize
+	 */
+	public void setMinSegmentSize(long minSegmentSize) {
+		this.minSegmentSize = Math.max(1, minSegmentSize);
+	}
+
+	public RetryPolicy getRetryPolicy() {
+		return retryPolicy;
+	}
+
+	/**
+	 * Set how failed segments are retried. Each retry resumes the segment from
+	 * the last byte written. Default is 5 attempts.
+	 * 
+	 * @param retryPolicy
+	 */
+	public void setRetryPolicy(RetryPolicy retryPolicy) {
+		this.retryPolicy = retryPolicy;
+	}
+}
@@ -1,21 +1,44 @@
 package com.github.fetch;
 
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.IOException;
-import java.net.HttpURLConnection;
-import java.net.MalformedURLException;
-import java.net.URL;
+import java.nio.file.Path;
 import java.util.Map;
-import java.util.Map.Entry;
+import java.util.Objects;
 
+import com.github.promise.AbortController;
+import com.github.promise.AbortSignal;
 import com.github.promise.Promise;
+import com.github.promise.Status;
 
 /**
  * Fetch an URL resource returning a Promise.
  */
 public class Fetch {
 
+	/**
+	 * System property enabling single-flight requests at startup
+	 */
+	public static final String SINGLE_FLIGHT_PROPERTY = "promise4j.fetch.singleFlight";
+
+	/**
+	 * System property choosing the HttpClient transport at startup, when supported
+	 */
+	public static final String HTTP_CLIENT_PROPERTY = "promise4j.fetch.httpClient";
+
+	/**
+	 * System property disabling compressed responses at startup, if false
+	 */
+	public static final String COMPRESSION_PROPERTY = "promise4j.fetch.compression";
+
+	private static final SingleFlight flights = new SingleFlight();
+	private static volatile FetchTransport transport = Boolean.getBoolean(HTTP_CLIENT_PROPERTY)
+			&& FetchTransport.isHttpClientSupported() ? FetchTransport.httpClient() : FetchTransport.urlConnection();
+	private static volatile HttpCache cache;
+	private static volatile boolean singleFlight = Boolean.getBoolean(SINGLE_FLIGHT_PROPERTY);
+	private static volatile boolean compression = !"false".equals(System.getProperty(COMPRESSION_PROPERTY));
+	private static volatile String[] singleFlightHeaders = { "Accept", "Accept-Encoding", "Accept-Language",
+			"Authorization", "Cookie" };
+
 	private Fetch() {
 	}
 
@@ -59,59 +82,193 @@ public class Fetch {
 
 	/**
 	 * Fetch an URL resource returning a Promise.
+	 * 
+	 * If the request signal is aborted, or the promise is cancelled, the promise
+	 * is rejected and the connection is closed. If the signal has a deadline, the
+	 * promise is rejected with a TimeoutException when it expires.
 	 */
 	public static Promise<Response> fetch(Request req) {
-		return new Promise<>((resolve, reject) -> {
-			try {
-				DataOutputStream printout;
+		AbortSignal signal = req.getSignal() != null ? req.getSignal() : AbortSignal.current();
+		HttpCache c = cache;
+		if (c != null) {
+			Response cached = c.getFresh(req);
+			if (cached != null) {
+				return Promise.resolve(cached);
+			}
+		}
+		if (singleFlight && isIdempotent(req)) {
+			return flights.fetch(req, SingleFlight.key(req, singleFlightHeaders), signal);
+		}
+		return send(req, signal);
+	}
+
+	/**
+	 * Exchange the request under a signal of its own, derived from the given one
+	 * and aborted when the returned promise is cancelled
+	 */
+	private static Promise<Response> send(Request req, AbortSignal signal) {
+		AbortController controller = new AbortController();
+		Promise<Response> response = exchange(req, AbortSignal.any(signal, controller.getSignal()));
+		if (response.getStatus() == Status.REJECTED) {
+			// nothing to cancel
+			return response;
+		}
+		FetchPromise<Response> result = new FetchPromise<>(signal, controller::abort);
+		response.whenComplete((resp, error) -> {
+			if (error != null) {
+				result.fail((Exception) error);
+			} else if (!result.fulfill(resp)) {
+				// cancelled meanwhile
+				close(resp);
+			}
+		});
+		return result;
+	}
 
-				URL url = new URL(req.getUrl());
+	private static void close(Response resp) {
+		try {
+			if (resp.getBody() != null) {
+				resp.getBody().close();
+			}
+		} catch (IOException e) {
+			// ignore
+		}
+	}
 
-				// URL connection channel.
-				HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-				conn.setRequestMethod(req.getMethod());
+	/**
+	 * Download an URL resource to a file, returning a Promise that resolves with
+	 * the number of bytes written.
+	 * 
+	 * If the server supports byte ranges, the resource is split in segments,
+	 * fetched concurrently and written at their position in a preallocated file;
+	 * a failed segment is resumed from its last byte written. Otherwise, the
+	 * resource is fetched with a single request.
+	 * 
+	 * @param url
+	 * @param file    the file to create or overwrite
+	 * @param options
+	 */
+	public static Promise<Long> download(String url, Path file, DownloadOptions options) {
+		return new Download(url, file, options).start();
+	}
+
+	/**
+	 * Download an URL resource to a file, with default options
+	 * 
+	 * @see #download(String, Path, DownloadOptions)
+	 */
+	public static Promise<Long> download(String url, Path file) {
+		return download(url, file, new DownloadOptions());
+	}
+
+	/**
+	 * True if concurrent identical GET and HEAD requests share a single
+	 * connection
+	 */
+	public static boolean isSingleFlight() {
+		return singleFlight;
+	}
 
-				// Let the run-time system (RTS) know that we want input.
-				conn.setDoInput(true);
+	/**
+	 * Choose whether concurrent identical GET and HEAD requests share a single
+	 * connection. In that case, the response body is read once and each caller
+	 * gets its own copy. Requests are identical if they have the same method, URL
+	 * and values for the headers given to {@link #setSingleFlightHeaders}. The
+	 * initial value is taken from system property
+	 * <code>promise4j.fetch.singleFlight</code>.
+	 * 
+	 * @param enabled
+	 */
+	public static void setSingleFlight(boolean enabled) {
+		singleFlight = enabled;
+	}
 
-				// No caching, we want the real thing.
-				conn.setUseCaches(false);
+	/**
+	 * Set the request headers that must be equal for two requests to share a
+	 * connection. Default is <code>Accept</code>, <code>Accept-Encoding</code>,
+	 * <code>Accept-Language</code>, <code>Authorization</code> and
+	 * <code>Cookie</code>.
+	 * 
+	 * @param names header names, case insensitive
+	 */
+	public static void setSingleFlightHeaders(String... names) {
+		singleFlightHeaders = names.clone();
+	}
 
-				// Specify the content type.
-				for (Entry<String, String> entry : req.getHeaders().entrySet()) {
-					conn.setRequestProperty(entry.getKey(), entry.getValue());
-				}
+	/**
+	 * Return the cache used by all requests, or null
+	 */
+	public static HttpCache getCache() {
+		return cache;
+	}
 
-				if (!"GET".equals(req.getMethod()) && !req.getBody().isEmpty()) {
+	/**
+	 * Set the cache used by all requests, or null for no cache (the default)
+	 * 
+	 * @param cache
+	 */
+	public static void setCache(HttpCache cache) {
+		Fetch.cache = cache;
+	}
 
-					// Let the RTS know that we want to do output.
-					conn.setDoOutput(true);
+	/**
+	 * True if responses are asked compressed, and decompressed transparently
+	 */
+	public static boolean isCompression() {
+		return compression;
+	}
 
-					// Send POST output.
-					printout = new DataOutputStream(conn.getOutputStream());
+	/**
+	 * Choose whether requests without an <code>Accept-Encoding</code> header are
+	 * sent with <code>Accept-Encoding: gzip, deflate</code>, and their responses
+	 * decompressed as they are read. In that case, the
+	 * <code>Content-Encoding</code> and <code>Content-Length</code> headers of
+	 * decompressed responses are removed. A request with its own
+	 * <code>Accept-Encoding</code> header gets the response as sent by the
+	 * server. The initial value is true, unless system property
+	 * <code>promise4j.fetch.compression</code> is false.
+	 * 
+	 * Request bodies are compressed only if asked, see
+	 * {@link Request#setCompressBody(boolean)}.
+	 * 
+	 * @param enabled
+	 */
+	public static void setCompression(boolean enabled) {
+		compression = enabled;
+	}
 
-					printout.writeBytes(req.getBody());
-					printout.flush();
-					printout.close();
-				}
+	private static boolean isIdempotent(Request req) {
+		return ("GET".equals(req.getMethod()) || "HEAD".equals(req.getMethod())) && req.getRequestBody().isEmpty();
+	}
 
-				Response resp = new Response();
-				resp.setStatus(conn.getResponseCode());
-				resp.setHeaders(conn.getHeaderFields());
+	/**
+	 * Return the transport sending requests
+	 */
+	public static FetchTransport getTransport() {
+		return transport;
+	}
 
-				// Get response data.
-				if (resp.getStatus() <= 399) {
-					resp.setBody(new DataInputStream(conn.getInputStream()));
-				} else {
-					resp.setBody(new DataInputStream(conn.getErrorStream()));
-				}
+	/**
+	 * Set the transport sending requests. The initial value is
+	 * {@link FetchTransport#httpClient()} if system property
+	 * <code>promise4j.fetch.httpClient</code> is true and the JVM supports it,
+	 * {@link FetchTransport#urlConnection()} otherwise.
+	 * 
+	 * @param transport
+	 */
+	public static void setTransport(FetchTransport transport) {
+		Fetch.transport = Objects.requireNonNull(transport, "transport");
+	}
 
-				resolve.accept(resp);
-			} catch (MalformedURLException me) {
-				reject.accept(me);
-			} catch (IOException ioe) {
-				reject.accept(ioe);
-			}
-		});
+	/**
+	 * Send the request through the cache, if any, and the content encoding
+	 */
+	static Promise<Response> exchange(Request req, AbortSignal signal) {
+		HttpCache c = cache;
+		FetchTransport t = req.getTransport() != null ? req.getTransport() : transport;
+		if (compression || req.isCompressBody()) {
+			t = new Compression.Transport(t, compression);
+		}
+		return c != null ? c.exchange(req, signal, t) : t.send(req, signal);
 	}
 }
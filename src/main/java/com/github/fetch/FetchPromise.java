@@ -0,0 +1,59 @@
+package com.github.fetch;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.github.promise.AbortSignal;
+import com.github.promise.Promise;
+
+/**
+ * A pending promise settled from outside, by callbacks of another promise or of
+ * an asynchronous transport. Cancelling it, or aborting its signal, may also
+ * abort the operation that would settle it.
+ */
+class FetchPromise<T> extends Promise<T> {
+
+	private final AtomicReference<Runnable> onCancel;
+
+	FetchPromise(AbortSignal signal) {
+		super(Promise.getDefaultExecutor(), signal);
+		this.onCancel = null;
+	}
+
+	/**
+	 * @param signal
+	 * @param onCancel called once if this promise is cancelled, e.g. to abort the
+	 *                 request whose response it waits for
+	 */
+	FetchPromise(AbortSignal signal, Runnable onCancel) {
+		super(Promise.getDefaultExecutor(), signal);
+		this.onCancel = new AtomicReference<>(onCancel);
+		if (isDone()) {
+			// cancelled by an aborted signal, before onCancel was set
+			cancelled();
+		}
+	}
+
+	boolean fulfill(T value) {
+		return complete(value);
+	}
+
+	boolean fail(Exception error) {
+		return completeExceptionally(error);
+	}
+
+	@Override
+	protected boolean cancel(Exception reason, boolean mayInterruptIfRunning) {
+		if (!super.cancel(reason, mayInterruptIfRunning)) {
+			return false;
+		}
+		cancelled();
+		return true;
+	}
+
+	private void cancelled() {
+		Runnable r = onCancel == null ? null : onCancel.getAndSet(null);
+		if (r != null) {
+			r.run();
+		}
+	}
+}
@@ -0,0 +1,55 @@
+package com.github.fetch;
+
+import com.github.promise.AbortSignal;
+import com.github.promise.Promise;
+
+/**
+ * The engine actually sending requests on behalf of {@link Fetch}.
+ * 
+ * A transport resolves the returned promise as soon as the response status and
+ * headers are received; the response body may still be streaming. If the
+ * signal is aborted, the promise must be rejected and the connection released.
+ * If the signal has a deadline, the promise must be rejected with a
+ * {@link com.github.promise.TimeoutException} when it expires.
+ * 
+ * @see Fetch#setTransport(FetchTransport)
+ */
+public interface FetchTransport {
+
+	/**
+	 * Send given request
+	 * 
+	 * @param req
+	 * @param signal an AbortSignal, or null
+	 */
+	Promise<Response> send(Request req, AbortSignal signal);
+
+	/**
+	 * The historical transport, based on <code>HttpURLConnection</code>. Each
+	 * request holds a thread until the response headers are received.
+	 */
+	static FetchTransport urlConnection() {
+		return UrlConnectionTransport.INSTANCE;
+	}
+
+	/**
+	 * True if this JVM supports {@link #httpClient()} (Java 11+)
+	 */
+	static boolean isHttpClientSupported() {
+		return Transports.HTTP_CLIENT != null;
+	}
+
+	/**
+	 * A transport based on <code>java.net.http.HttpClient</code>, that does not
+	 * hold any thread while waiting for the response, and supports HTTP/2. All
+	 * requests share the same client, hence its connection pool.
+	 * 
+	 * @throws UnsupportedOperationException on JVM's older than Java 11
+	 */
+	static FetchTransport httpClient() {
+		if (Transports.HTTP_CLIENT == null) {
+			throw new UnsupportedOperationException("HttpClient requires Java 11 or later");
+		}
+		return Transports.HTTP_CLIENT;
+	}
+}
@@ -0,0 +1,567 @@
+package com.github.fetch;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.github.promise.AbortSignal;
+import com.github.promise.Promise;
+
+/**
+ * A private HTTP cache for GET requests, as described by RFC 9111. Responses are
+ * kept in a bounded in-memory LRU, and optionally in a directory on disk, that
+ * is not bounded.
+ *
+ * Fresh responses (according to <code>Cache-Control: max-age</code> or
+ * <code>Expires</code>) are returned without touching the network. Stale
+ * responses having an <code>ETag</code> or <code>Last-Modified</code> header
+ * are revalidated with a conditional request; a <code>304 Not Modified</code>
+ * answer refreshes the cached response. Responses with
+ * <code>Cache-Control: no-store</code> are never cached, responses with
+ * <code>no-cache</code> are always revalidated.
+ *
+ * @see Fetch#setCache(HttpCache)
+ */
+public class HttpCache {
+
+	private static final DateTimeFormatter HTTP_DATE = DateTimeFormatter.RFC_1123_DATE_TIME;
+
+	// first int of cache files, changed with their layout
+	private static final int FILE_FORMAT = 0x46430002;
+
+	private final int maxEntries;
+	private final Path directory;
+
+	// guarded by itself
+	private final LinkedHashMap<String, CachedResponse> entries;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong revalidations = new AtomicLong();
+
+	/**
+	 * An in-memory cache
+	 *
+	 * @param maxEntries maximum number of responses kept in memory
+	 */
+	public HttpCache(int maxEntries) {
+		this(maxEntries, null);
+	}
+
+	/**
+	 * A cache backed by a directory, keeping the most recently used responses in
+	 * memory
+	 *
+	 * @param maxEntries maximum number of responses kept in memory
+	 * @param directory  a directory where all responses are stored, or null
+	 */
+	public HttpCache(int maxEntries, Path directory) {
+		if (maxEntries < 1) {
+			throw new IllegalArgumentException("maxEntries must be at least 1: " + maxEntries);
+		}
+		this.maxEntries = maxEntries;
+		this.directory = directory;
+		this.entries = new LinkedHashMap<String, CachedResponse>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Entry<String, CachedResponse> eldest) {
+				return size() > HttpCache.this.maxEntries;
+			}
+		};
+	}
+
+	/**
+	 * Number of requests answered from the cache without network access
+	 */
+	public long getHitCount() {
+		return hits.get();
+	}
+
+	/**
+	 * Number of requests sent to the network because no usable response was
+	 * cached
+	 */
+	public long getMissCount() {
+		return misses.get();
+	}
+
+	/**
+	 * Number of stale responses confirmed by the server with a
+	 * <code>304 Not Modified</code>
+	 */
+	public long getRevalidationCount() {
+		return revalidations.get();
+	}
+
+	/**
+	 * Number of responses kept in memory
+	 */
+	public int size() {
+		synchronized (entries) {
+			return entries.size();
+		}
+	}
+
+	/**
+	 * Remove all responses, from memory and disk
+	 */
+	public void clear() {
+		synchronized (entries) {
+			entries.clear();
+		}
+		if (directory != null) {
+			try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*.cache")) {
+				for (Path file : files) {
+					Files.deleteIfExists(file);
+				}
+			} catch (IOException e) {
+				// best effort
+			}
+		}
+	}
+
+	/**
+	 * Return a fresh cached response for given request, or null
+	 */
+	Response getFresh(Request req) {
+		if (!isCacheable(req)) {
+			return null;
+		}
+		CachedResponse cached = lookup(req);
+		if (cached != null && cached.isFresh() && !hasDirective(requestHeader(req, "Cache-Control"), "no-cache")) {
+			hits.incrementAndGet();
+			return cached.toResponse();
+		}
+		return null;
+	}
+
+	/**
+	 * Send given request through given transport, unless a fresh response is
+	 * cached, and cache the response
+	 */
+	Promise<Response> exchange(Request req, AbortSignal signal, FetchTransport transport) {
+		if (!isCacheable(req)) {
+			return transport.send(req, signal);
+		}
+		CachedResponse cached = lookup(req);
+		boolean noCache = hasDirective(requestHeader(req, "Cache-Control"), "no-cache");
+		if (cached != null && cached.isFresh() && !noCache) {
+			hits.incrementAndGet();
+			return Promise.resolve(cached.toResponse());
+		}
+
+		Request sent = req;
+		if (cached != null && (cached.etag != null || cached.lastModified != null)) {
+			sent = req.copy();
+			if (cached.etag != null) {
+				sent.getHeaders().put("If-None-Match", cached.etag);
+			}
+			if (cached.lastModified != null) {
+				sent.getHeaders().put("If-Modified-Since", cached.lastModified);
+			}
+		}
+
+		long requestTime = System.currentTimeMillis();
+		return transport.send(sent, signal).thenPromise((resp) -> {
+			if (resp.getStatus() == 304 && cached != null) {
+				close(resp);
+				revalidations.incrementAndGet();
+				CachedResponse refreshed = cached.refresh(resp.getHeaders(), requestTime);
+				store(refreshed);
+				return Promise.resolve(refreshed.toResponse());
+			}
+
+			misses.incrementAndGet();
+			if (!isStorable(resp)) {
+				return Promise.resolve(resp);
+			}
+			return new Promise<>((resolve, reject) -> {
+				try {
+					resp.buffer();
+					store(CachedResponse.received(key(req), varyValues(req, resp.getHeaders()), resp.getStatus(),
+							Response.copyHeaders(resp.getHeaders()), resp.getBufferedBody(), requestTime));
+					resolve.accept(resp);
+				} catch (IOException e) {
+					reject.accept(e);
+				}
+			});
+		});
+	}
+
+	private static void close(Response resp) {
+		try {
+			if (resp.getBody() != null) {
+				resp.getBody().close();
+			}
+		} catch (IOException e) {
+			// ignore
+		}
+	}
+
+	private static boolean isCacheable(Request req) {
+		return "GET".equals(req.getMethod()) && !hasDirective(requestHeader(req, "Cache-Control"), "no-store");
+	}
+
+	private static boolean isStorable(Response resp) {
+		int status = resp.getStatus();
+		if (status != 200 && status != 203 && status != 301 && status != 404 && status != 410) {
+			return false;
+		}
+		String cacheControl = join(headerValues(resp.getHeaders(), "Cache-Control"));
+		String vary = join(headerValues(resp.getHeaders(), "Vary"));
+		return !hasDirective(cacheControl, "no-store") && !"*".equals(vary.trim());
+	}
+
+	private static String key(Request req) {
+		return req.getUrl();
+	}
+
+	private CachedResponse lookup(Request req) {
+		String key = key(req);
+		CachedResponse cached;
+		synchronized (entries) {
+			cached = entries.get(key);
+		}
+		if (cached == null && directory != null) {
+			cached = load(key);
+			if (cached != null) {
+				synchronized (entries) {
+					entries.put(key, cached);
+				}
+			}
+		}
+		if (cached != null && !cached.vary.equals(varyValues(req, cached.headers))) {
+			return null;
+		}
+		return cached;
+	}
+
+	private void store(CachedResponse cached) {
+		synchronized (entries) {
+			entries.put(cached.key, cached);
+		}
+		if (directory != null) {
+			save(cached);
+		}
+	}
+
+	/**
+	 * Values of the request headers listed by the <code>Vary</code> response
+	 * header
+	 */
+	private static Map<String, String> varyValues(Request req, Map<String, List<String>> responseHeaders) {
+		Map<String, String> values = new TreeMap<>();
+		for (String vary : headerValues(responseHeaders, "Vary")) {
+			for (String name : vary.split(",")) {
+				name = name.trim().toLowerCase(Locale.ROOT);
+				if (name.isEmpty()) {
+					continue;
+				}
+				String value = requestHeader(req, name);
+				values.put(name, value == null ? "" : value);
+			}
+		}
+		return values;
+	}
+
+	private static String requestHeader(Request req, String name) {
+		for (Entry<String, String> header : req.getHeaders().entrySet()) {
+			if (header.getKey().equalsIgnoreCase(name)) {
+				return header.getValue();
+			}
+		}
+		return null;
+	}
+
+	private static List<String> headerValues(Map<String, List<String>> headers, String name) {
+		for (Entry<String, List<String>> entry : headers.entrySet()) {
+			if (name.equalsIgnoreCase(entry.getKey())) {
+				return entry.getValue();
+			}
+		}
+		return Collections.emptyList();
+	}
+
+	private static String join(List<String> values) {
+		return String.join(",", values);
+	}
+
+	private static boolean hasDirective(String cacheControl, String directive) {
+		return directive(cacheControl, directive) != null;
+	}
+
+	/**
+	 * Value of a <code>Cache-Control</code> directive, an empty string for a
+	 * directive without value, or null if absent
+	 */
+	private static String directive(String cacheControl, String directive) {
+		if (cacheControl == null) {
+			return null;
+		}
+		for (String part : cacheControl.split(",")) {
+			String[] nameValue = part.trim().split("=", 2);
+			if (nameValue[0].trim().equalsIgnoreCase(directive)) {
+				return nameValue.length > 1 ? nameValue[1].trim().replace("\"", "") : "";
+			}
+		}
+		return null;
+	}
+
+	private static long parseDate(String date) {
+		try {
+			return ZonedDateTime.parse(date, HTTP_DATE).toInstant().toEpochMilli();
+		} catch (DateTimeParseException e) {
+			return -1;
+		}
+	}
+
+	private static String first(Map<String, List<String>> headers, String name) {
+		List<String> values = headerValues(headers, name);
+		return values.isEmpty() ? null : values.get(0);
+	}
+
+	/**
+	 * A cached response, immutable
+	 */
+	private static class CachedResponse {
+		final String key;
+		final Map<String, String> vary;
+		final int status;
+		final Map<String, List<String>> headers;
+		final byte[] body;
+		final long expires;
+		final String etag;
+		final String lastModified;
+
+		CachedResponse(String key, Map<String, String> vary, int status, Map<String, List<String>> headers,
+				byte[] body, long expires) {
+			this.key = key;
+			this.vary = vary;
+			this.status = status;
+			this.headers = headers;
+			this.body = body;
+			this.expires = expires;
+			this.etag = first(headers, "ETag");
+			this.lastModified = first(headers, "Last-Modified");
+		}
+
+		/**
+		 * A response received at given time
+		 */
+		static CachedResponse received(String key, Map<String, String> vary, int status,
+				Map<String, List<String>> headers, byte[] body, long requestTime) {
+			return new CachedResponse(key, vary, status, headers, body,
+					requestTime + freshnessLifetime(headers, requestTime));
+		}
+
+		boolean isFresh() {
+			return System.currentTimeMillis() < expires;
+		}
+
+		/**
+		 * The response refreshed by the headers of a <code>304</code>
+		 */
+		CachedResponse refresh(Map<String, List<String>> notModified, long requestTime) {
+			Map<String, List<String>> merged = new LinkedHashMap<>();
+			for (Entry<String, List<String>> entry : headers.entrySet()) {
+				if (entry.getKey() == null || headerValues(notModified, entry.getKey()).isEmpty()
+						|| entry.getKey().equalsIgnoreCase("Content-Length")) {
+					merged.put(entry.getKey(), entry.getValue());
+				}
+			}
+			for (Entry<String, List<String>> entry : notModified.entrySet()) {
+				if (entry.getKey() != null && !entry.getKey().equalsIgnoreCase("Content-Length")) {
+					merged.put(entry.getKey(), entry.getValue());
+				}
+			}
+			return received(key, vary, status, merged, body, requestTime);
+		}
+
+		Response toResponse() {
+			Response resp = new Response();
+			resp.setUrl(key);
+			resp.setStatus(status);
+			resp.setHeaders(Response.copyHeaders(headers));
+			resp.setBufferedBody(body);
+			return resp;
+		}
+
+		/**
+		 * Freshness lifetime in ms, from <code>Cache-Control</code> or
+		 * <code>Expires</code>; 0 if the response must be revalidated
+		 */
+		static long freshnessLifetime(Map<String, List<String>> headers, long requestTime) {
+			String cacheControl = join(headerValues(headers, "Cache-Control"));
+			if (hasDirective(cacheControl, "no-cache")) {
+				return 0;
+			}
+			String maxAge = directive(cacheControl, "max-age");
+			if (maxAge != null) {
+				try {
+					long age = 0;
+					String ageHeader = first(headers, "Age");
+					if (ageHeader != null) {
+						age = Long.parseLong(ageHeader.trim());
+					}
+					return Math.max(0, (Long.parseLong(maxAge) - age) * 1000);
+				} catch (NumberFormatException e) {
+					return 0;
+				}
+			}
+			String expires = first(headers, "Expires");
+			if (expires != null) {
+				long expiresTime = parseDate(expires);
+				String date = first(headers, "Date");
+				long dateTime = date == null ? requestTime : parseDate(date);
+				if (expiresTime < 0 || dateTime < 0) {
+					return 0;
+				}
+				return Math.max(0, expiresTime - dateTime);
+			}
+			return 0;
+		}
+	}
+
+	private Path file(String key) {
+		try {
+			byte[] hash = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+			StringBuilder name = new StringBuilder();
+			for (byte b : hash) {
+				name.append(String.format("%02x", b));
+			}
+			return directory.resolve(name.append(".cache").toString());
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private void save(CachedResponse cached) {
+		Path file = file(cached.key);
+		Path tmp = null;
+		try {
+			Files.createDirectories(directory);
+			tmp = Files.createTempFile(directory, "fetch", ".tmp");
+			try (DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+				out.writeInt(FILE_FORMAT);
+				writeString(out, cached.key);
+				out.writeInt(cached.vary.size());
+				for (Entry<String, String> entry : cached.vary.entrySet()) {
+					writeString(out, entry.getKey());
+					writeString(out, entry.getValue());
+				}
+				out.writeInt(cached.status);
+				out.writeLong(cached.expires);
+				int count = 0;
+				for (String name : cached.headers.keySet()) {
+					if (name != null) {
+						count++;
+					}
+				}
+				out.writeInt(count);
+				for (Entry<String, List<String>> entry : cached.headers.entrySet()) {
+					if (entry.getKey() == null) {
+						continue;
+					}
+					writeString(out, entry.getKey());
+					out.writeInt(entry.getValue().size());
+					for (String value : entry.getValue()) {
+						writeString(out, value);
+					}
+				}
+				out.writeInt(cached.body.length);
+				out.write(cached.body);
+			}
+			Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			// best effort: the response is still cached in memory
+			if (tmp != null) {
+				try {
+					Files.deleteIfExists(tmp);
+				} catch (IOException e2) {
+					// ignore
+				}
+			}
+		}
+	}
+
+	private CachedResponse load(String key) {
+		Path file = file(key);
+		if (!Files.isRegularFile(file)) {
+			return null;
+		}
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+			if (in.readInt() != FILE_FORMAT || !key.equals(readString(in))) {
+				return null;
+			}
+			Map<String, String> vary = new TreeMap<>();
+			for (int i = in.readInt(); i > 0; i--) {
+				vary.put(readString(in), readString(in));
+			}
+			int status = in.readInt();
+			long expires = in.readLong();
+			Map<String, List<String>> headers = new LinkedHashMap<>();
+			for (int i = in.readInt(); i > 0; i--) {
+				String name = readString(in);
+				List<String> values = new ArrayList<>();
+				for (int j = in.readInt(); j > 0; j--) {
+					values.add(readString(in));
+				}
+				headers.put(name, values);
+			}
+			byte[] body = readBytes(in);
+			return new CachedResponse(key, vary, status, headers, body, expires);
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Write a string as its UTF-8 bytes, after their number: unlike
+	 * <code>writeUTF</code>, this is not limited to 64 KiB
+	 */
+	private static void writeString(DataOutputStream out, String s) throws IOException {
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		return new String(readBytes(in), StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Read bytes written after their number
+	 */
+	private static byte[] readBytes(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		if (length < 0) {
+			throw new IOException("Corrupt cache file");
+		}
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return bytes;
+	}
+}
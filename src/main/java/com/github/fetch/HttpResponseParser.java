@@ -0,0 +1,272 @@
+package com.github.fetch;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Incremental parser of an HTTP/1.1 response, fed with the bytes read from a
+ * connection as they arrive. The head is parsed first; then the body is copied
+ * out as it is read, without being kept here. Supports bodies delimited by
+ * <code>Content-Length</code>, by chunked transfer encoding, or by the end of
+ * the connection.
+ */
+class HttpResponseParser {
+
+	private enum State {
+		HEADERS, FIXED, CHUNK_SIZE, CHUNK_DATA, CHUNK_END, TRAILERS, UNTIL_CLOSE, DONE
+	}
+
+	private final boolean head;
+
+	private State state = State.HEADERS;
+	private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+	private final List<String> headerLines = new ArrayList<>();
+	private long remaining;
+	private boolean received;
+
+	private int status;
+	private Map<String, List<String>> headers = new LinkedHashMap<>();
+	private boolean keepAlive = true;
+
+	/**
+	 * Constructor
+	 *
+	 * @param head true if the response is to a HEAD request, hence has no body
+	 */
+	HttpResponseParser(boolean head) {
+		this.head = head;
+	}
+
+	/**
+	 * Consume the bytes of the status line and headers. Bytes following the
+	 * headers are left in the buffer.
+	 *
+	 * @return true once the headers of the final response are received
+	 * @throws IOException if the response is malformed
+	 */
+	boolean feedHead(ByteBuffer buffer) throws IOException {
+		if (buffer.hasRemaining()) {
+			received = true;
+		}
+		while (state == State.HEADERS && buffer.hasRemaining()) {
+			String text = readLine(buffer);
+			if (text != null) {
+				onLine(text);
+			}
+		}
+		return state != State.HEADERS;
+	}
+
+	/**
+	 * Consume body bytes from the buffer, with their chunk framing, copying at
+	 * most <code>len</code> of them to the given array
+	 *
+	 * @return the number of bytes copied, 0 if more input is needed or the body
+	 *         is complete
+	 * @throws IOException if the response is malformed
+	 */
+	int readBody(ByteBuffer buffer, byte[] b, int off, int len) throws IOException {
+		while (len > 0 && buffer.hasRemaining() && state != State.DONE) {
+			switch (state) {
+			case CHUNK_SIZE:
+			case CHUNK_END:
+			case TRAILERS:
+				String text = readLine(buffer);
+				if (text != null) {
+					onLine(text);
+				}
+				break;
+			case FIXED:
+			case CHUNK_DATA:
+				int n = (int) Math.min(Math.min(remaining, buffer.remaining()), len);
+				buffer.get(b, off, n);
+				remaining -= n;
+				if (remaining == 0) {
+					state = state == State.FIXED ? State.DONE : State.CHUNK_END;
+				}
+				return n;
+			case UNTIL_CLOSE:
+				n = Math.min(buffer.remaining(), len);
+				buffer.get(b, off, n);
+				return n;
+			default:
+				throw new IllegalStateException("Headers not received");
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * True if the whole response is received
+	 */
+	boolean isDone() {
+		return state == State.DONE;
+	}
+
+	/**
+	 * The connection was closed by the server
+	 *
+	 * @return true if the response is complete
+	 */
+	boolean endOfStream() {
+		if (state == State.UNTIL_CLOSE) {
+			state = State.DONE;
+		}
+		keepAlive = false;
+		return state == State.DONE;
+	}
+
+	/**
+	 * True if some bytes were received
+	 */
+	boolean isReceived() {
+		return received;
+	}
+
+	int getStatus() {
+		return status;
+	}
+
+	Map<String, List<String>> getHeaders() {
+		return headers;
+	}
+
+	/**
+	 * True if the connection can be reused for another request
+	 */
+	boolean isKeepAlive() {
+		return keepAlive && state == State.DONE;
+	}
+
+	/**
+	 * Read a line terminated by CRLF, or return null if more bytes are needed
+	 */
+	private String readLine(ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			byte b = buffer.get();
+			if (b == '\n') {
+				byte[] bytes = line.toByteArray();
+				line.reset();
+				int length = bytes.length > 0 && bytes[bytes.length - 1] == '\r' ? bytes.length - 1 : bytes.length;
+				return new String(bytes, 0, length, StandardCharsets.ISO_8859_1);
+			}
+			if (line.size() > 65536) {
+				throw new IOException("Line too long in HTTP response");
+			}
+			line.write(b);
+		}
+		return null;
+	}
+
+	private void onLine(String text) throws IOException {
+		switch (state) {
+		case HEADERS:
+			if (!text.isEmpty()) {
+				headerLines.add(text);
+			} else if (!headerLines.isEmpty()) {
+				onHeaders();
+			}
+			break;
+		case CHUNK_SIZE:
+			int semicolon = text.indexOf(';');
+			String size = (semicolon >= 0 ? text.substring(0, semicolon) : text).trim();
+			try {
+				remaining = Long.parseLong(size, 16);
+			} catch (NumberFormatException e) {
+				throw new IOException("Bad chunk size: " + text);
+			}
+			state = remaining == 0 ? State.TRAILERS : State.CHUNK_DATA;
+			break;
+		case CHUNK_END:
+			state = State.CHUNK_SIZE;
+			break;
+		case TRAILERS:
+			if (text.isEmpty()) {
+				state = State.DONE;
+			}
+			break;
+		default:
+			break;
+		}
+	}
+
+	private void onHeaders() throws IOException {
+		String statusLine = headerLines.get(0);
+		String[] parts = statusLine.split(" ", 3);
+		if (parts.length < 2 || !parts[0].startsWith("HTTP/")) {
+			throw new IOException("Bad HTTP status line: " + statusLine);
+		}
+		try {
+			status = Integer.parseInt(parts[1]);
+		} catch (NumberFormatException e) {
+			throw new IOException("Bad HTTP status line: " + statusLine);
+		}
+		Map<String, List<String>> map = new LinkedHashMap<>();
+		for (String headerLine : headerLines.subList(1, headerLines.size())) {
+			int colon = headerLine.indexOf(':');
+			if (colon > 0) {
+				String name = headerLine.substring(0, colon).trim();
+				String value = headerLine.substring(colon + 1).trim();
+				List<String> values = null;
+				for (Map.Entry<String, List<String>> entry : map.entrySet()) {
+					if (entry.getKey().equalsIgnoreCase(name)) {
+						values = entry.getValue();
+					}
+				}
+				if (values == null) {
+					values = new ArrayList<>();
+					map.put(name, values);
+				}
+				values.add(value);
+			}
+		}
+		headerLines.clear();
+
+		if (status >= 100 && status < 200) {
+			// interim response, e.g. 100 Continue: the real one follows
+			return;
+		}
+		headers = map;
+
+		String connection = header("Connection");
+		if (parts[0].equals("HTTP/1.0")) {
+			keepAlive = connection != null && connection.equalsIgnoreCase("keep-alive");
+		} else {
+			keepAlive = connection == null || !connection.equalsIgnoreCase("close");
+		}
+
+		String transferEncoding = header("Transfer-Encoding");
+		String contentLength = header("Content-Length");
+		if (head || status == 204 || status == 304) {
+			state = State.DONE;
+		} else if (transferEncoding != null && transferEncoding.toLowerCase(Locale.ROOT).contains("chunked")) {
+			state = State.CHUNK_SIZE;
+		} else if (contentLength != null) {
+			try {
+				remaining = Long.parseLong(contentLength.trim());
+			} catch (NumberFormatException e) {
+				throw new IOException("Bad Content-Length: " + contentLength);
+			}
+			state = remaining == 0 ? State.DONE : State.FIXED;
+		} else {
+			state = State.UNTIL_CLOSE;
+			keepAlive = false;
+		}
+	}
+
+	private String header(String name) {
+		for (Map.Entry<String, List<String>> entry : headers.entrySet()) {
+			if (entry.getKey().equalsIgnoreCase(name) && !entry.getValue().isEmpty()) {
+				return entry.getValue().get(0);
+			}
+		}
+		return null;
+	}
+}
@@ -0,0 +1,135 @@
+package com.github.fetch;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Function;
+
+import com.github.promise.AbortSignal;
+import com.github.promise.Promise;
+
+/**
+ * A transport routing requests to Java handlers in the same JVM, without any
+ * network access: useful for tests and benchmarks.
+ * 
+ * Each request is given to the handler registered with the longest URL prefix
+ * matching the request URL, and the same method (or any method, if no handler
+ * is registered for the same method). Handlers run
+ * synchronously in the thread calling <code>fetch</code>. If no handler
+ * matches, the response has status 404.
+ */
+public class InMemoryTransport implements FetchTransport {
+
+	private final List<Route> routes = new CopyOnWriteArrayList<>();
+
+	private static class Route {
+		final String method;
+		final String urlPrefix;
+		final Function<Request, Response> handler;
+
+		Route(String method, String urlPrefix, Function<Request, Response> handler) {
+			this.method = method;
+			this.urlPrefix = urlPrefix;
+			this.handler = handler;
+		}
+	}
+
+	/**
+	 * Register a handler for the requests whose URL starts with given prefix, any
+	 * method.
+	 * 
+	 * @param urlPrefix e.g. <code>"http://service/api/"</code>
+	 * @param handler   returns the response to a request
+	 * @return this
+	 */
+	public InMemoryTransport route(String urlPrefix, Function<Request, Response> handler) {
+		return route(null, urlPrefix, handler);
+	}
+
+	/**
+	 * Register a handler for the requests with given method, whose URL starts
+	 * with given prefix.
+	 * 
+	 * @param method    HTTP method, or null for any method
+	 * @param urlPrefix e.g. <code>"http://service/api/"</code>
+	 * @param handler   returns the response to a request
+	 * @return this
+	 */
+	public InMemoryTransport route(String method, String urlPrefix, Function<Request, Response> handler) {
+		routes.add(new Route(method, urlPrefix, handler));
+		return this;
+	}
+
+	/**
+	 * Remove all handlers
+	 */
+	public void clear() {
+		routes.clear();
+	}
+
+	@Override
+	public Promise<Response> send(Request req, AbortSignal signal) {
+		if (signal != null && signal.isAborted()) {
+			return Promise.reject(signal.getReason());
+		}
+		Route best = null;
+		for (Route route : routes) {
+			if ((route.method == null || route.method.equals(req.getMethod())) && req.getUrl().startsWith(route.urlPrefix)
+					&& (best == null || isBetter(route, best))) {
+				best = route;
+			}
+		}
+		if (best == null) {
+			return Promise.resolve(response(404, "Not Found"));
+		}
+		try {
+			Response resp = best.handler.apply(req);
+			if (resp.getUrl() == null) {
+				resp.setUrl(req.getUrl());
+			}
+			return Promise.resolve(resp);
+		} catch (RuntimeException e) {
+			return Promise.reject(e);
+		}
+	}
+
+	/**
+	 * The longest prefix wins, then a route for a specific method
+	 */
+	private static boolean isBetter(Route route, Route best) {
+		int diff = route.urlPrefix.length() - best.urlPrefix.length();
+		return diff > 0 || (diff == 0 && route.method != null && best.method == null);
+	}
+
+	/**
+	 * A response with given status and UTF-8 text body
+	 * 
+	 * @param status
+	 * @param body
+	 */
+	public static Response response(int status, String body) {
+		return response(status, "text/plain; charset=UTF-8", body.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * A response with given status, content type and body
+	 * 
+	 * @param status
+	 * @param contentType
+	 * @param body
+	 */
+	public static Response response(int status, String contentType, byte[] body) {
+		Map<String, List<String>> headers = new LinkedHashMap<>();
+		headers.put("Content-Type", Collections.singletonList(contentType));
+		headers.put("Content-Length", Collections.singletonList(String.valueOf(body.length)));
+		Response resp = new Response();
+		resp.setStatus(status);
+		resp.setHeaders(headers);
+		resp.setBody(new ByteArrayInputStream(body));
+		return resp;
+	}
+}
@@ -0,0 +1,183 @@
+package com.github.fetch;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.util.zip.CRC32;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+/**
+ * Decompresses a body with <code>Content-Encoding: gzip</code> or
+ * <code>deflate</code>, using a pooled Inflater given back when the stream is
+ * closed, instead of allocating a native one for each response as
+ * GZIPInputStream does.
+ *
+ * The gzip header and trailer are parsed here; only the first gzip member is
+ * read. A <code>deflate</code> body is accepted with or without its zlib
+ * wrapper, as some servers send raw deflate data. An empty body is decoded as
+ * empty.
+ */
+class InflatingInputStream extends InflaterInputStream {
+
+	private static final int BUFFER_SIZE = 8 * 1024;
+
+	private static final int GZIP_MAGIC = 0x8b1f;
+	private static final int FHCRC = 2;
+	private static final int FEXTRA = 4;
+	private static final int FNAME = 8;
+	private static final int FCOMMENT = 16;
+
+	private final boolean gzip;
+	private final boolean nowrap;
+	private final CRC32 crc = new CRC32();
+	private boolean started;
+	private boolean empty;
+	private boolean trailerRead;
+	private boolean closed;
+
+	private InflatingInputStream(InputStream in, boolean nowrap, boolean gzip) {
+		super(in, Compression.acquireInflater(nowrap), BUFFER_SIZE);
+		this.nowrap = nowrap;
+		this.gzip = gzip;
+	}
+
+	/**
+	 * Decompress a gzip stream
+	 *
+	 * @param in
+	 */
+	static InflatingInputStream gzip(InputStream in) {
+		return new InflatingInputStream(in, true, true);
+	}
+
+	/**
+	 * Decompress a deflate stream, with or without zlib wrapper
+	 *
+	 * @param in
+	 * @throws IOException if the first bytes cannot be read
+	 */
+	static InflatingInputStream deflate(InputStream in) throws IOException {
+		PushbackInputStream pushback = new PushbackInputStream(in, 2);
+		byte[] header = new byte[2];
+		int n = 0;
+		int r;
+		while (n < 2 && (r = pushback.read(header, n, 2 - n)) >= 0) {
+			n += r;
+		}
+		pushback.unread(header, 0, n);
+		int cmf = header[0] & 0xff;
+		int flg = header[1] & 0xff;
+		boolean zlib = n == 2 && (cmf & 0x0f) == 8 && ((cmf << 8) | flg) % 31 == 0;
+		InflatingInputStream stream = new InflatingInputStream(pushback, !zlib, false);
+		stream.empty = n == 0;
+		return stream;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (closed) {
+			throw new IOException("Stream closed");
+		}
+		if (!started) {
+			started = true;
+			if (gzip) {
+				empty = !readHeader();
+			}
+		}
+		if (empty || len == 0) {
+			return empty ? -1 : 0;
+		}
+		int n = super.read(b, off, len);
+		if (n > 0) {
+			if (gzip) {
+				crc.update(b, off, n);
+			}
+		} else if (n < 0 && gzip && !trailerRead) {
+			readTrailer();
+		}
+		return n;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (!closed) {
+			closed = true;
+			Compression.releaseInflater(inf, nowrap);
+			super.close();
+		}
+	}
+
+	/**
+	 * Read the gzip header
+	 *
+	 * @return false if the stream is empty
+	 */
+	private boolean readHeader() throws IOException {
+		int first = in.read();
+		if (first < 0) {
+			return false;
+		}
+		if ((first | (readUByte() << 8)) != GZIP_MAGIC) {
+			throw new ZipException("Not in GZIP format");
+		}
+		if (readUByte() != 8) {
+			throw new ZipException("Unsupported compression method");
+		}
+		int flags = readUByte();
+		skip(6); // modification time, extra flags, OS
+		if ((flags & FEXTRA) != 0) {
+			skip(readUByte() | (readUByte() << 8));
+		}
+		if ((flags & FNAME) != 0) {
+			while (readUByte() != 0) {
+			}
+		}
+		if ((flags & FCOMMENT) != 0) {
+			while (readUByte() != 0) {
+			}
+		}
+		if ((flags & FHCRC) != 0) {
+			skip(2);
+		}
+		return true;
+	}
+
+	/**
+	 * Read and check the gzip trailer, partly left in the inflater input
+	 */
+	private void readTrailer() throws IOException {
+		trailerRead = true;
+		byte[] trailer = new byte[8];
+		int remaining = Math.min(inf.getRemaining(), trailer.length);
+		System.arraycopy(buf, len - inf.getRemaining(), trailer, 0, remaining);
+		for (int i = remaining; i < trailer.length; i++) {
+			trailer[i] = (byte) readUByte();
+		}
+		long expectedCrc = readUInt(trailer, 0);
+		long expectedSize = readUInt(trailer, 4);
+		if (expectedCrc != crc.getValue() || expectedSize != (inf.getBytesWritten() & 0xffffffffL)) {
+			throw new ZipException("Corrupt GZIP trailer");
+		}
+	}
+
+	private int readUByte() throws IOException {
+		int b = in.read();
+		if (b < 0) {
+			throw new EOFException("Unexpected end of GZIP stream");
+		}
+		return b;
+	}
+
+	private void skip(int n) throws IOException {
+		for (int i = 0; i < n; i++) {
+			readUByte();
+		}
+	}
+
+	private static long readUInt(byte[] bytes, int offset) {
+		return (bytes[offset] & 0xffL) | ((bytes[offset + 1] & 0xffL) << 8) | ((bytes[offset + 2] & 0xffL) << 16)
+				| ((bytes[offset + 3] & 0xffL) << 24);
+	}
+}
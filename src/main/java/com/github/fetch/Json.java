@@ -0,0 +1,16 @@
+package com.github.fetch;
+
+import com.google.gson.Gson;
+
+/**
+ * Holder of the Gson instance shared by all requests and responses. Gson is
+ * thread safe. Being in its own class, it is loaded only when JSON is actually
+ * used, as Gson is an optional dependency.
+ */
+final class Json {
+
+	static final Gson GSON = new Gson();
+
+	private Json() {
+	}
+}
@@ -0,0 +1,684 @@
+package com.github.fetch;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousChannelGroup;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.InterruptedByTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.Deque;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import com.github.promise.AbortSignal;
+import com.github.promise.Promise;
+import com.github.promise.PromiseExecutors;
+import com.github.promise.SetTimeout;
+import com.github.promise.Status;
+import com.github.promise.Timeout;
+import com.github.promise.TimeoutException;
+
+/**
+ * A minimal HTTP/1.1 transport based on <code>AsynchronousSocketChannel</code>.
+ * Promises are settled by I/O completion callbacks, so no thread is held while
+ * waiting for the server: thousands of concurrent requests can run on the few
+ * threads of the channel group.
+ *
+ * Connections are kept alive and reused for following requests to the same
+ * host. Response bodies delimited by <code>Content-Length</code>, by chunked
+ * transfer encoding, or by the end of the connection are supported. The
+ * promise is resolved once the headers are received; the body is then read
+ * from the connection as it is consumed, so it is never held in memory as a
+ * whole. <code>text()</code>, <code>arrayBuffer()</code>,
+ * <code>byteBuffer()</code> and <code>body()</code> read it by completion
+ * callbacks too; only reading the body stream directly blocks the calling
+ * thread, which must then not be one of the I/O threads. The connection is
+ * reused once the body is fully read, and closed if the body is closed before. Request bodies are streamed,
+ * with chunked transfer encoding if their length is unknown; they are read in
+ * the I/O threads. Only plain <code>http</code> URL's are supported.
+ *
+ * Requests without a deadline are bounded by a connect timeout and by a read
+ * timeout between received bytes; with a deadline, the earliest applies.
+ *
+ * The transport must be closed when no more needed.
+ */
+public class NioTransport implements FetchTransport, Closeable {
+
+	private static final int BUFFER_SIZE = 16 * 1024;
+	// room for the chunk size line before chunk data
+	private static final int CHUNK_HEADROOM = 8;
+	private static final byte[] LAST_CHUNK = "0\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+	private static final byte[] EMPTY = {};
+
+	private final AsynchronousChannelGroup group;
+	private final Map<String, Deque<AsynchronousSocketChannel>> idle = new ConcurrentHashMap<>();
+	private volatile int maxIdleConnectionsPerHost = 8;
+	private volatile long connectTimeoutMs = 10000;
+	private volatile long readTimeoutMs = 30000;
+
+	/**
+	 * A transport running on as many threads as available processors
+	 *
+	 * @throws IOException
+	 */
+	public NioTransport() throws IOException {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * A transport running on a given number of threads
+	 *
+	 * @param nThreads
+	 * @throws IOException
+	 */
+	public NioTransport(int nThreads) throws IOException {
+		group = AsynchronousChannelGroup.withFixedThreadPool(nThreads,
+				PromiseExecutors.newDaemonThreadFactory("promise4j-nio"));
+	}
+
+	public int getMaxIdleConnectionsPerHost() {
+		return maxIdleConnectionsPerHost;
+	}
+
+	/**
+	 * Set how many idle connections are kept for each host, default 8
+	 *
+	 * @param max
+	 */
+	public void setMaxIdleConnectionsPerHost(int max) {
+		this.maxIdleConnectionsPerHost = max;
+	}
+
+	public long getConnectTimeoutMs() {
+		return connectTimeoutMs;
+	}
+
+	/**
+	 * Set how long connecting may take, default 10 s, or 0 for no limit. A
+	 * connect timeout fails the request with a SocketTimeoutException.
+	 *
+	 * @param ms
+	 */
+	public void setConnectTimeoutMs(long ms) {
+		this.connectTimeoutMs = Math.max(0, ms);
+	}
+
+	public long getReadTimeoutMs() {
+		return readTimeoutMs;
+	}
+
+	/**
+	 * Set how long to wait for the next bytes of a response, default 30 s, or 0
+	 * for no limit. A read timeout fails the request, or the read of the body,
+	 * with a SocketTimeoutException.
+	 *
+	 * @param ms
+	 */
+	public void setReadTimeoutMs(long ms) {
+		this.readTimeoutMs = Math.max(0, ms);
+	}
+
+	/**
+	 * Number of idle connections kept for reuse
+	 */
+	public int getIdleConnectionCount() {
+		int count = 0;
+		for (Deque<AsynchronousSocketChannel> channels : idle.values()) {
+			count += channels.size();
+		}
+		return count;
+	}
+
+	/**
+	 * Close all connections, and stop the threads
+	 */
+	@Override
+	public void close() throws IOException {
+		for (Deque<AsynchronousSocketChannel> channels : idle.values()) {
+			AsynchronousSocketChannel channel;
+			while ((channel = channels.poll()) != null) {
+				closeQuietly(channel);
+			}
+		}
+		group.shutdownNow();
+	}
+
+	@Override
+	public Promise<Response> send(Request req, AbortSignal signal) {
+		FetchPromise<Response> promise = new FetchPromise<>(signal);
+		URI uri;
+		try {
+			uri = new URI(req.getUrl());
+		} catch (URISyntaxException e) {
+			promise.fail(e);
+			return promise;
+		}
+		if (!"http".equalsIgnoreCase(uri.getScheme()) || uri.getHost() == null) {
+			promise.fail(new IOException("Unsupported URL: " + req.getUrl()));
+			return promise;
+		}
+		new Exchange(req, uri, signal, promise).start();
+		return promise;
+	}
+
+	/**
+	 * One request/response exchange, driven by completion callbacks
+	 */
+	private class Exchange {
+		private final Request req;
+		private final URI uri;
+		private final AbortSignal signal;
+		private final FetchPromise<Response> promise;
+		private final String hostKey;
+		private final RequestBody body;
+		private final ByteBuffer request;
+		private InputStream bodyStream;
+		// request body chunk, after CHUNK_HEADROOM bytes for its size line
+		private byte[] chunk;
+		private ByteBuffer chunkBuffer;
+
+		private AsynchronousSocketChannel channel;
+		private boolean reused;
+		private volatile boolean connectTimedOut;
+		private HttpResponseParser parser;
+		private boolean finished;
+		private final Runnable abortListener = this::abort;
+
+		Exchange(Request req, URI uri, AbortSignal signal, FetchPromise<Response> promise) {
+			this.req = req;
+			this.uri = uri;
+			this.signal = signal;
+			this.promise = promise;
+			int port = uri.getPort() < 0 ? 80 : uri.getPort();
+			this.hostKey = uri.getHost() + ":" + port;
+			this.body = "GET".equals(req.getMethod()) ? RequestBody.empty() : req.getRequestBody();
+			this.request = encodeRequest();
+		}
+
+		void start() {
+			if (signal != null) {
+				signal.addAbortListener(abortListener);
+			}
+			channel = pollIdle();
+			if (channel != null) {
+				reused = true;
+				write();
+				return;
+			}
+			reused = false;
+			try {
+				channel = AsynchronousSocketChannel.open(group);
+			} catch (IOException e) {
+				fail(e);
+				return;
+			}
+			int port = uri.getPort() < 0 ? 80 : uri.getPort();
+			AsynchronousSocketChannel c = channel;
+			long connectTimeout = connectTimeoutMs;
+			Timeout timer = connectTimeout == 0 ? null : SetTimeout.getTimer().schedule(() -> {
+				connectTimedOut = true;
+				closeQuietly(c);
+			}, connectTimeout, TimeUnit.MILLISECONDS);
+			channel.connect(new InetSocketAddress(uri.getHost(), port), null, new CompletionHandler<Void, Void>() {
+				@Override
+				public void completed(Void result, Void attachment) {
+					if (timer != null) {
+						timer.cancel();
+					}
+					write();
+				}
+
+				@Override
+				public void failed(Throwable exc, Void attachment) {
+					if (timer != null) {
+						timer.cancel();
+					}
+					fail(connectTimedOut ? new SocketTimeoutException("Connect timed out") : exc);
+				}
+			});
+		}
+
+		private AsynchronousSocketChannel pollIdle() {
+			Deque<AsynchronousSocketChannel> channels = idle.get(hostKey);
+			if (channels == null) {
+				return null;
+			}
+			AsynchronousSocketChannel c;
+			while ((c = channels.poll()) != null) {
+				if (c.isOpen()) {
+					return c;
+				}
+			}
+			return null;
+		}
+
+		private void write() {
+			if (isSettled()) {
+				closeQuietly(channel);
+				return;
+			}
+			writeFully(request, this::writeBody);
+		}
+
+		/**
+		 * Write the body, if not already sent with the head, one chunk at a time
+		 */
+		private void writeBody() {
+			if (body.isEmpty() || body instanceof RequestBody.BytesBody) {
+				startReading();
+				return;
+			}
+			try {
+				if (bodyStream == null) {
+					bodyStream = body.openStream();
+					chunk = new byte[CHUNK_HEADROOM + BUFFER_SIZE + 2];
+					chunkBuffer = ByteBuffer.wrap(chunk);
+				}
+				int n = bodyStream.read(chunk, CHUNK_HEADROOM, BUFFER_SIZE);
+				if (n < 0) {
+					bodyStream.close();
+					if (body.contentLength() >= 0) {
+						startReading();
+					} else {
+						writeFully(ByteBuffer.wrap(LAST_CHUNK), this::startReading);
+					}
+					return;
+				}
+				int start = CHUNK_HEADROOM;
+				int end = CHUNK_HEADROOM + n;
+				if (body.contentLength() < 0) {
+					byte[] size = (Integer.toHexString(n) + "\r\n").getBytes(StandardCharsets.ISO_8859_1);
+					start -= size.length;
+					System.arraycopy(size, 0, chunk, start, size.length);
+					chunk[end++] = '\r';
+					chunk[end++] = '\n';
+				}
+				chunkBuffer.limit(end).position(start);
+			} catch (IOException e) {
+				fail(e);
+				return;
+			}
+			writeFully(chunkBuffer, this::writeBody);
+		}
+
+		private void writeFully(ByteBuffer buffer, Runnable next) {
+			channel.write(buffer, null, new CompletionHandler<Integer, Void>() {
+				@Override
+				public void completed(Integer result, Void attachment) {
+					if (buffer.hasRemaining()) {
+						channel.write(buffer, null, this);
+					} else {
+						next.run();
+					}
+				}
+
+				@Override
+				public void failed(Throwable exc, Void attachment) {
+					retryOrFail(exc);
+				}
+			});
+		}
+
+		private void startReading() {
+			parser = new HttpResponseParser("HEAD".equals(req.getMethod()));
+			readHead(ByteBuffer.allocate(BUFFER_SIZE));
+		}
+
+		private void readHead(ByteBuffer buffer) {
+			buffer.clear();
+			channel.read(buffer, readTimeout(), TimeUnit.MILLISECONDS, null, new CompletionHandler<Integer, Void>() {
+				@Override
+				public void completed(Integer n, Void attachment) {
+					try {
+						if (n < 0) {
+							if (!parser.isReceived()) {
+								// the server closed an idle connection
+								retryOrFail(new IOException("Connection closed by server"));
+							} else {
+								fail(new IOException("Connection closed before end of response"));
+							}
+							return;
+						}
+						buffer.flip();
+						if (parser.feedHead(buffer)) {
+							onHead(buffer);
+						} else {
+							readHead(buffer);
+						}
+					} catch (IOException e) {
+						fail(e);
+					}
+				}
+
+				@Override
+				public void failed(Throwable exc, Void attachment) {
+					if (exc instanceof InterruptedByTimeoutException) {
+						fail(exc);
+					} else {
+						// e.g. connection reset while idle
+						retryOrFail(exc);
+					}
+				}
+			});
+		}
+
+		/**
+		 * Resolve with the response, whose body is read from given buffer, then
+		 * from the connection
+		 */
+		private void onHead(ByteBuffer buffer) {
+			Response resp = new Response();
+			resp.setUrl(req.getUrl());
+			resp.setStatus(parser.getStatus());
+			resp.setHeaders(parser.getHeaders());
+			if (parser.isDone()) {
+				finish();
+				resp.setBufferedBody(EMPTY);
+				promise.fulfill(resp);
+			} else {
+				resp.setBody(new BodyStream(buffer));
+				if (!promise.fulfill(resp)) {
+					abandon();
+				}
+			}
+		}
+
+		/**
+		 * Timeout of the next read, in ms, or 0 for none
+		 */
+		private long readTimeout() {
+			long timeout = readTimeoutMs;
+			if (signal != null && signal.hasDeadline()) {
+				// rounded up, so that a timeout at the deadline is seen as such
+				long remaining = Math.max(1, (signal.remaining(TimeUnit.NANOSECONDS) + 999_999) / 1_000_000);
+				timeout = timeout == 0 ? remaining : Math.min(timeout, remaining);
+			}
+			return timeout;
+		}
+
+		/**
+		 * The response is fully read: reuse the connection if possible
+		 */
+		private synchronized void finish() {
+			if (!finished) {
+				finished = true;
+				removeAbortListener();
+				if (parser.isKeepAlive()) {
+					release(hostKey, channel);
+				} else {
+					closeQuietly(channel);
+				}
+			}
+		}
+
+		/**
+		 * The response body is not read to its end: close the connection
+		 */
+		private synchronized void abandon() {
+			if (!finished) {
+				finished = true;
+				removeAbortListener();
+				closeQuietly(channel);
+			}
+		}
+
+		/**
+		 * A response body read from the connection as it is consumed, by
+		 * completion callbacks; the InputStream methods wait for them.
+		 */
+		private class BodyStream extends InputStream implements AsyncBody {
+			// bytes received, not consumed yet
+			private final ByteBuffer buffer;
+			private volatile boolean closed;
+
+			BodyStream(ByteBuffer buffer) {
+				this.buffer = buffer;
+			}
+
+			@Override
+			public int read() throws IOException {
+				byte[] b = new byte[1];
+				return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				if (len == 0) {
+					return 0;
+				}
+				for (;;) {
+					int n = readReceived(b, off, len);
+					if (n != 0) {
+						return n;
+					}
+					FetchPromise<Void> received = new FetchPromise<>(null);
+					receive(() -> received.fulfill(null), received::fail);
+					try {
+						received.get();
+					} catch (InterruptedException e) {
+						abandon();
+						Thread.currentThread().interrupt();
+						throw new InterruptedIOException();
+					} catch (ExecutionException e) {
+						Throwable cause = e.getCause();
+						throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+					}
+				}
+			}
+
+			@Override
+			public int readReceived(byte[] b, int off, int len) throws IOException {
+				if (closed) {
+					throw new IOException("Stream closed");
+				}
+				try {
+					for (;;) {
+						if (parser.isDone()) {
+							finish();
+							return -1;
+						}
+						int n = parser.readBody(buffer, b, off, len);
+						if (n > 0) {
+							return n;
+						}
+						if (!buffer.hasRemaining() && !parser.isDone()) {
+							return 0;
+						}
+					}
+				} catch (IOException e) {
+					abandon();
+					throw e;
+				}
+			}
+
+			@Override
+			public void receive(Runnable onReceived, Consumer<Exception> onError) {
+				buffer.clear();
+				channel.read(buffer, readTimeout(), TimeUnit.MILLISECONDS, null,
+						new CompletionHandler<Integer, Void>() {
+							@Override
+							public void completed(Integer n, Void attachment) {
+								buffer.flip();
+								if (n < 0 && !parser.endOfStream()) {
+									abandon();
+									onError.accept(new IOException("Connection closed before end of response"));
+								} else {
+									onReceived.run();
+								}
+							}
+
+							@Override
+							public void failed(Throwable exc, Void attachment) {
+								abandon();
+								onError.accept(toError(exc));
+							}
+						});
+			}
+
+			@Override
+			public void close() {
+				if (!closed) {
+					closed = true;
+					if (parser.isDone()) {
+						finish();
+					} else {
+						abandon();
+					}
+				}
+			}
+		}
+
+		/**
+		 * A reused connection may have been closed by the server meanwhile: try
+		 * again with a new connection, if the request was not processed.
+		 */
+		private void retryOrFail(Throwable exc) {
+			closeQuietly(channel);
+			if (reused && (parser == null || !parser.isReceived()) && isIdempotent() && isReplayable() && !isSettled()) {
+				removeAbortListener();
+				request.rewind();
+				closeBodyStream();
+				parser = null;
+				start();
+			} else {
+				fail(exc);
+			}
+		}
+
+		private boolean isIdempotent() {
+			String method = req.getMethod();
+			return "GET".equals(method) || "HEAD".equals(method) || "PUT".equals(method) || "DELETE".equals(method)
+					|| "OPTIONS".equals(method);
+		}
+
+		/**
+		 * True if the body can be sent again
+		 */
+		private boolean isReplayable() {
+			return body.isReplayable();
+		}
+
+		private void closeBodyStream() {
+			if (bodyStream != null) {
+				try {
+					bodyStream.close();
+				} catch (IOException e) {
+					// ignore
+				}
+				bodyStream = null;
+			}
+		}
+
+		private boolean isSettled() {
+			return promise.getStatus() != Status.PENDING;
+		}
+
+		private void abort() {
+			closeQuietly(channel);
+		}
+
+		private void fail(Throwable exc) {
+			removeAbortListener();
+			closeQuietly(channel);
+			closeBodyStream();
+			promise.fail(toError(exc));
+		}
+
+		/**
+		 * The error of a failed read: the reason of the signal if it was aborted,
+		 * as this closes the connection; a TimeoutException if the read timed out
+		 * at the deadline of the signal, rather than at the transport's read
+		 * timeout
+		 */
+		private Exception toError(Throwable exc) {
+			if (signal != null && signal.isAborted()) {
+				return signal.getReason();
+			} else if (exc instanceof InterruptedByTimeoutException) {
+				return signal != null && signal.hasDeadline() && signal.remaining(TimeUnit.NANOSECONDS) == 0
+						? new TimeoutException()
+						: new SocketTimeoutException("Read timed out");
+			} else if (exc instanceof Exception) {
+				return (Exception) exc;
+			}
+			return new IOException(exc);
+		}
+
+		private void removeAbortListener() {
+			if (signal != null) {
+				signal.removeAbortListener(abortListener);
+			}
+		}
+
+		/**
+		 * Encode the request head, followed by the body if it is in memory
+		 */
+		private ByteBuffer encodeRequest() {
+			byte[] bytes = body instanceof RequestBody.BytesBody ? ((RequestBody.BytesBody) body).bytes() : new byte[0];
+			String path = uri.getRawPath() == null || uri.getRawPath().isEmpty() ? "/" : uri.getRawPath();
+			if (uri.getRawQuery() != null) {
+				path += "?" + uri.getRawQuery();
+			}
+			StringBuilder head = new StringBuilder();
+			head.append(req.getMethod()).append(' ').append(path).append(" HTTP/1.1\r\n");
+			head.append("Host: ").append(uri.getHost());
+			if (uri.getPort() >= 0) {
+				head.append(':').append(uri.getPort());
+			}
+			head.append("\r\n");
+			for (Entry<String, String> entry : req.getHeaders().entrySet()) {
+				String name = entry.getKey();
+				if (!name.equalsIgnoreCase("Host") && !name.equalsIgnoreCase("Content-Length")
+						&& !name.equalsIgnoreCase("Transfer-Encoding") && !name.equalsIgnoreCase("Connection")) {
+					head.append(name).append(": ").append(entry.getValue()).append("\r\n");
+				}
+			}
+			long length = body.contentLength();
+			if (length > 0) {
+				head.append("Content-Length: ").append(length).append("\r\n");
+			} else if (length < 0) {
+				head.append("Transfer-Encoding: chunked\r\n");
+			}
+			head.append("\r\n");
+			byte[] headBytes = head.toString().getBytes(StandardCharsets.ISO_8859_1);
+			ByteBuffer buffer = ByteBuffer.allocate(headBytes.length + bytes.length);
+			buffer.put(headBytes).put(bytes);
+			buffer.flip();
+			return buffer;
+		}
+	}
+
+	/**
+	 * Keep given connection for reuse, or close it if there are enough idle ones
+	 */
+	private void release(String key, AsynchronousSocketChannel channel) {
+		Deque<AsynchronousSocketChannel> channels = idle.computeIfAbsent(key, (k) -> new ConcurrentLinkedDeque<>());
+		if (channels.size() < maxIdleConnectionsPerHost && !group.isShutdown()) {
+			channels.push(channel);
+		} else {
+			closeQuietly(channel);
+		}
+	}
+
+	private static void closeQuietly(AsynchronousSocketChannel channel) {
+		if (channel != null) {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				// ignore
+			}
+		}
+	}
+}
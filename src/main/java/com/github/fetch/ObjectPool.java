@@ -0,0 +1,81 @@
+package com.github.fetch;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * A bounded pool of reusable objects, shared by all threads, e.g. decoders
+ * that are costly to create. Objects are taken with {@link #acquire()} and
+ * given back with {@link #release(Object)}; at most <code>maxPooled</code>
+ * free objects are kept, the others are left to the garbage collector, or
+ * ended if the pool has an end function.
+ */
+class ObjectPool<T> {
+
+	private final int maxPooled;
+	private final Supplier<T> factory;
+	private final Consumer<T> end;
+	private final ConcurrentLinkedQueue<T> free = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger freeCount = new AtomicInteger();
+
+	/**
+	 * Constructor
+	 *
+	 * @param maxPooled max number of free objects kept
+	 * @param factory   creates an object when none is free
+	 */
+	ObjectPool(int maxPooled, Supplier<T> factory) {
+		this(maxPooled, factory, null);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param maxPooled max number of free objects kept
+	 * @param factory   creates an object when none is free
+	 * @param end       called with the objects not kept, e.g. to free their
+	 *                  native memory, or null
+	 */
+	ObjectPool(int maxPooled, Supplier<T> factory, Consumer<T> end) {
+		this.maxPooled = maxPooled;
+		this.factory = factory;
+		this.end = end;
+	}
+
+	/**
+	 * Take a free object, or create a new one
+	 */
+	T acquire() {
+		T item = free.poll();
+		if (item == null) {
+			return factory.get();
+		}
+		freeCount.decrementAndGet();
+		return item;
+	}
+
+	/**
+	 * Give back an object taken from this pool. It must not be used anymore.
+	 *
+	 * @param item
+	 */
+	void release(T item) {
+		if (freeCount.incrementAndGet() <= maxPooled) {
+			free.offer(item);
+		} else {
+			freeCount.decrementAndGet();
+			if (end != null) {
+				end.accept(item);
+			}
+		}
+	}
+
+	/**
+	 * Number of free objects in the pool
+	 */
+	int getFreeCount() {
+		return freeCount.get();
+	}
+}
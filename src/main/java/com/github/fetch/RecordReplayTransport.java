@@ -0,0 +1,283 @@
+package com.github.fetch;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.github.promise.AbortSignal;
+import com.github.promise.Promise;
+import com.google.gson.GsonBuilder;
+import com.google.gson.reflect.TypeToken;
+
+/**
+ * A transport recording the exchanges of another transport, and replaying
+ * them later without any network access.
+ *
+ * In <code>RECORD</code> mode, requests are sent by the delegate transport,
+ * and responses are buffered and recorded. In <code>REPLAY</code> mode,
+ * requests are answered with the recorded responses, matching method, URL and
+ * body; identical requests get the recorded responses in the same order, the
+ * last one being repeated. A request that was not recorded is rejected with an
+ * IOException.
+ *
+ * Bodies are matched by a SHA-256 digest of their bytes, so they must be
+ * readable more than once: requests with a body made of an InputStream or of
+ * chunks are rejected with an IOException.
+ *
+ * Recordings can be saved to, and loaded from, a JSON file.
+ */
+public class RecordReplayTransport implements FetchTransport {
+
+	public enum Mode {
+		RECORD, REPLAY
+	}
+
+	private final FetchTransport delegate;
+	private volatile Mode mode;
+
+	// in recording order; each list is guarded by itself
+	private final Map<String, List<Recording>> recordings = new ConcurrentHashMap<>();
+	private final Map<String, AtomicInteger> replayed = new ConcurrentHashMap<>();
+
+	/**
+	 * A recorded exchange, as saved in JSON
+	 */
+	static class Recording {
+		String method;
+		String url;
+		// the request body if it was a string, for the reader
+		String requestBody;
+		// Base64 SHA-256 of the request body bytes, empty if no body
+		String requestDigest;
+		int status;
+		Map<String, List<String>> headers;
+		String body;
+	}
+
+	/**
+	 * A transport replaying recordings, that must be loaded
+	 */
+	public RecordReplayTransport() {
+		this(null, Mode.REPLAY);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param delegate the transport sending requests in <code>RECORD</code> mode
+	 * @param mode
+	 */
+	public RecordReplayTransport(FetchTransport delegate, Mode mode) {
+		this.delegate = delegate;
+		setMode(mode);
+	}
+
+	public Mode getMode() {
+		return mode;
+	}
+
+	public void setMode(Mode mode) {
+		if (mode == Mode.RECORD && delegate == null) {
+			throw new IllegalStateException("Cannot record without a delegate transport");
+		}
+		this.mode = mode;
+	}
+
+	/**
+	 * Number of recorded exchanges
+	 */
+	public int size() {
+		int size = 0;
+		for (List<Recording> list : recordings.values()) {
+			synchronized (list) {
+				size += list.size();
+			}
+		}
+		return size;
+	}
+
+	@Override
+	public Promise<Response> send(Request req, AbortSignal signal) {
+		RequestBody body = req.getRequestBody();
+		if (!body.isReplayable()) {
+			return Promise.reject(new IOException(
+					"Cannot record nor replay a one-shot request body: " + req.getMethod() + " " + req.getUrl()));
+		}
+		String digest;
+		try {
+			digest = digest(body);
+		} catch (IOException e) {
+			return Promise.reject(e);
+		}
+		if (mode == Mode.RECORD) {
+			return delegate.send(req, signal).thenPromise((resp) -> new Promise<>((resolve, reject) -> {
+				try {
+					resp.buffer();
+					record(req, digest, resp);
+					resolve.accept(resp);
+				} catch (IOException e) {
+					reject.accept(e);
+				}
+			}));
+		}
+		if (signal != null && signal.isAborted()) {
+			return Promise.reject(signal.getReason());
+		}
+		String key = key(req.getMethod(), req.getUrl(), digest);
+		List<Recording> list = recordings.get(key);
+		if (list == null) {
+			return Promise.reject(new IOException("No recording for " + req.getMethod() + " " + req.getUrl()));
+		}
+		Recording recording;
+		synchronized (list) {
+			int index = replayed.computeIfAbsent(key, (k) -> new AtomicInteger()).getAndIncrement();
+			recording = list.get(Math.min(index, list.size() - 1));
+		}
+		return Promise.resolve(toResponse(recording));
+	}
+
+	/**
+	 * Restart replaying from the first recording of each request
+	 */
+	public void rewind() {
+		replayed.clear();
+	}
+
+	/**
+	 * Remove all recordings
+	 */
+	public void clear() {
+		recordings.clear();
+		replayed.clear();
+	}
+
+	/**
+	 * Save all recordings to a JSON file
+	 *
+	 * @param file
+	 * @throws IOException
+	 */
+	public void save(Path file) throws IOException {
+		List<Recording> all = new ArrayList<>();
+		for (List<Recording> list : recordings.values()) {
+			synchronized (list) {
+				all.addAll(list);
+			}
+		}
+		try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+			new GsonBuilder().setPrettyPrinting().create().toJson(all, writer);
+		}
+	}
+
+	/**
+	 * Add the recordings of a JSON file
+	 *
+	 * @param file
+	 * @throws IOException
+	 */
+	public void load(Path file) throws IOException {
+		Type type = new TypeToken<List<Recording>>() {
+		}.getType();
+		List<Recording> all;
+		try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+			all = Json.GSON.fromJson(reader, type);
+		}
+		if (all != null) {
+			for (Recording recording : all) {
+				add(recording);
+			}
+		}
+	}
+
+	private void record(Request req, String digest, Response resp) {
+		Recording recording = new Recording();
+		recording.method = req.getMethod();
+		recording.url = req.getUrl();
+		recording.requestBody = req.getBody();
+		recording.requestDigest = digest;
+		recording.status = resp.getStatus();
+		recording.headers = new LinkedHashMap<>();
+		for (Map.Entry<String, List<String>> entry : resp.getHeaders().entrySet()) {
+			if (entry.getKey() != null) {
+				recording.headers.put(entry.getKey(), new ArrayList<>(entry.getValue()));
+			}
+		}
+		recording.body = Base64.getEncoder().encodeToString(resp.getBufferedBody());
+		add(recording);
+	}
+
+	private void add(Recording recording) {
+		String digest = recording.requestDigest;
+		if (digest == null) {
+			// recorded before digests, with a string body
+			String text = recording.requestBody == null ? "" : recording.requestBody;
+			digest = text.isEmpty() ? "" : digest(text.getBytes(StandardCharsets.UTF_8));
+		}
+		List<Recording> list = recordings.computeIfAbsent(key(recording.method, recording.url, digest),
+				(k) -> new ArrayList<>());
+		synchronized (list) {
+			list.add(recording);
+		}
+	}
+
+	private static Response toResponse(Recording recording) {
+		Response resp = new Response();
+		resp.setUrl(recording.url);
+		resp.setStatus(recording.status);
+		resp.setHeaders(recording.headers);
+		resp.setBufferedBody(Base64.getDecoder().decode(recording.body));
+		return resp;
+	}
+
+	private static String key(String method, String url, String digest) {
+		return method + " " + url + "\n" + digest;
+	}
+
+	/**
+	 * Digest of the bytes of a replayable body, empty if there are none
+	 */
+	private static String digest(RequestBody body) throws IOException {
+		if (body.isEmpty()) {
+			return "";
+		}
+		if (body instanceof RequestBody.BytesBody) {
+			return digest(((RequestBody.BytesBody) body).bytes());
+		}
+		MessageDigest md = sha256();
+		try (InputStream in = body.openStream()) {
+			byte[] buffer = new byte[8192];
+			int n;
+			while ((n = in.read(buffer)) >= 0) {
+				md.update(buffer, 0, n);
+			}
+		}
+		return Base64.getEncoder().encodeToString(md.digest());
+	}
+
+	private static String digest(byte[] bytes) {
+		return Base64.getEncoder().encodeToString(sha256().digest(bytes));
+	}
+
+	private static MessageDigest sha256() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			// required on every Java platform
+			throw new IllegalStateException(e);
+		}
+	}
+}
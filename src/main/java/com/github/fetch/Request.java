@@ -4,14 +4,17 @@ import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Map.Entry;
 
-import com.google.gson.Gson;
+import com.github.promise.AbortSignal;
 
 public class Request {
 	private String url;
 	private String method = "GET";
-	private String body = "";
+	private RequestBody body = RequestBody.empty();
 	private String credentials = "same-origin";
 	private LinkedHashMap<String, String> headers = new LinkedHashMap<>();
+	private AbortSignal signal;
+	private FetchTransport transport;
+	private boolean compressBody;
 
 	public Request() {
 	}
@@ -36,12 +39,52 @@ public class Request {
 		this.method = method;
 	}
 
+	/**
+	 * Return the body, if it was given as a String, otherwise an empty string
+	 */
 	public String getBody() {
-		return body;
+		if (body instanceof RequestBody.BytesBody) {
+			String text = ((RequestBody.BytesBody) body).text();
+			return text != null ? text : "";
+		}
+		return "";
 	}
 
+	/**
+	 * Set the body, that will be encoded in UTF-8
+	 * 
+	 * @param body
+	 */
 	public void setBody(String body) {
-		this.body = body;
+		this.body = body == null ? RequestBody.empty() : RequestBody.of(body);
+	}
+
+	public RequestBody getRequestBody() {
+		return body;
+	}
+
+	/**
+	 * Set the body, e.g. <code>RequestBody.of(path)</code> to upload a file
+	 * 
+	 * @param body
+	 */
+	public void setBody(RequestBody body) {
+		this.body = body == null ? RequestBody.empty() : body;
+	}
+
+	public boolean isCompressBody() {
+		return compressBody;
+	}
+
+	/**
+	 * Choose whether the body is sent compressed with gzip, with a
+	 * <code>Content-Encoding: gzip</code> header. The server must support it.
+	 * Default is false.
+	 * 
+	 * @param compressBody
+	 */
+	public void setCompressBody(boolean compressBody) {
+		this.compressBody = compressBody;
 	}
 
 	public String getCredentials() {
@@ -60,6 +103,49 @@ public class Request {
 		this.headers = headers;
 	}
 
+	public AbortSignal getSignal() {
+		return signal;
+	}
+
+	/**
+	 * Set a signal allowing to abort the request. If not set, the current signal
+	 * (see {@link AbortSignal#current()}) is used.
+	 * 
+	 * @param signal
+	 */
+	public void setSignal(AbortSignal signal) {
+		this.signal = signal;
+	}
+
+	public FetchTransport getTransport() {
+		return transport;
+	}
+
+	/**
+	 * Set the transport sending this request. If not set, the global one (see
+	 * {@link Fetch#setTransport(FetchTransport)}) is used.
+	 * 
+	 * @param transport
+	 */
+	public void setTransport(FetchTransport transport) {
+		this.transport = transport;
+	}
+
+	/**
+	 * A copy of this request, with its own headers
+	 */
+	Request copy() {
+		Request copy = new Request(url);
+		copy.method = method;
+		copy.body = body;
+		copy.credentials = credentials;
+		copy.headers = new LinkedHashMap<>(headers);
+		copy.signal = signal;
+		copy.transport = transport;
+		copy.compressBody = compressBody;
+		return copy;
+	}
+
 	/**
 	 * Create JSON body from given object
 	 * 
@@ -67,7 +153,7 @@ public class Request {
 	 */
 	public void setJsonBody(Object data) {
 		headers.put("Content-Type", "application/json");
-		this.body = new Gson().toJson(data);
+		this.body = RequestBody.of(Json.GSON.toJson(data));
 	}
 
 	/**
@@ -81,7 +167,7 @@ public class Request {
 		for (Entry<String, String> entry : data.entrySet()) {
 			body.append(formEncode(entry.getKey())).append('=').append(formEncode(entry.getValue()));
 		}
-		this.body = body.toString();
+		this.body = RequestBody.of(body.toString());
 	}
 
 	private String formEncode(String s) {
@@ -0,0 +1,351 @@
+package com.github.fetch;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Objects;
+import java.util.function.Supplier;
+
+/**
+ * The body of a request. Bodies of known length are sent in fixed-length
+ * streaming mode, the others with chunked transfer encoding; in both cases,
+ * they are streamed, without being copied in memory.
+ *
+ * Bodies made of bytes, strings and files can be sent many times; bodies made
+ * of an InputStream or a supplier of chunks can be sent only once.
+ */
+public abstract class RequestBody {
+
+	private static final int BUFFER_SIZE = 16 * 1024;
+
+	private static final RequestBody EMPTY = new BytesBody(new byte[0], "");
+
+	/**
+	 * Length in bytes, or -1 if unknown
+	 */
+	public abstract long contentLength();
+
+	/**
+	 * Open a stream reading the body
+	 *
+	 * @throws IOException
+	 */
+	public abstract InputStream openStream() throws IOException;
+
+	/**
+	 * Write the whole body to given stream
+	 *
+	 * @param out
+	 * @throws IOException
+	 */
+	public void writeTo(OutputStream out) throws IOException {
+		try (InputStream in = openStream()) {
+			byte[] buffer = new byte[BUFFER_SIZE];
+			int n;
+			while ((n = in.read(buffer)) >= 0) {
+				out.write(buffer, 0, n);
+			}
+		}
+	}
+
+	/**
+	 * True if the body has no bytes
+	 */
+	public boolean isEmpty() {
+		return contentLength() == 0;
+	}
+
+	/**
+	 * True if the body can be read more than once, e.g. to send it again
+	 */
+	boolean isReplayable() {
+		return isEmpty();
+	}
+
+	/**
+	 * The empty body
+	 */
+	public static RequestBody empty() {
+		return EMPTY;
+	}
+
+	/**
+	 * A body made of a string, encoded in UTF-8
+	 *
+	 * @param text
+	 */
+	public static RequestBody of(String text) {
+		return of(text, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * A body made of a string, encoded in given charset
+	 *
+	 * @param text
+	 * @param charset
+	 */
+	public static RequestBody of(String text, Charset charset) {
+		return text.isEmpty() ? EMPTY : new BytesBody(text.getBytes(charset), text);
+	}
+
+	/**
+	 * A body made of given bytes, that are not copied
+	 *
+	 * @param bytes
+	 */
+	public static RequestBody of(byte[] bytes) {
+		return new BytesBody(Objects.requireNonNull(bytes, "bytes"), null);
+	}
+
+	/**
+	 * A body read from given stream, of unknown length, sent with chunked
+	 * transfer encoding. The stream is closed once sent.
+	 *
+	 * @param in
+	 */
+	public static RequestBody of(InputStream in) {
+		return new StreamBody(Objects.requireNonNull(in, "in"), -1);
+	}
+
+	/**
+	 * A body read from given stream, of known length. The stream is closed once
+	 * sent.
+	 *
+	 * @param in
+	 * @param length
+	 */
+	public static RequestBody of(InputStream in, long length) {
+		return new StreamBody(Objects.requireNonNull(in, "in"), length);
+	}
+
+	/**
+	 * A body read from given file, of the length it has now. Sending fails with an
+	 * IOException if the file has become shorter; if it has grown, only its first
+	 * bytes are sent.
+	 *
+	 * @param file
+	 * @throws IOException if the file size cannot be read
+	 */
+	public static RequestBody of(Path file) throws IOException {
+		return new FileBody(file, Files.size(file));
+	}
+
+	/**
+	 * A body made of the chunks returned by given supplier, until it returns null,
+	 * sent with chunked transfer encoding.
+	 *
+	 * @param chunks
+	 */
+	public static RequestBody ofChunks(Supplier<byte[]> chunks) {
+		return new ChunksBody(Objects.requireNonNull(chunks, "chunks"));
+	}
+
+	/**
+	 * Body in memory
+	 */
+	static class BytesBody extends RequestBody {
+		private final byte[] bytes;
+		private final String text;
+
+		BytesBody(byte[] bytes, String text) {
+			this.bytes = bytes;
+			this.text = text;
+		}
+
+		@Override
+		public long contentLength() {
+			return bytes.length;
+		}
+
+		@Override
+		public InputStream openStream() {
+			return new ByteArrayInputStream(bytes);
+		}
+
+		@Override
+		public void writeTo(OutputStream out) throws IOException {
+			out.write(bytes);
+		}
+
+		@Override
+		boolean isReplayable() {
+			return true;
+		}
+
+		byte[] bytes() {
+			return bytes;
+		}
+
+		/**
+		 * The string this body was made from, or null
+		 */
+		String text() {
+			return text;
+		}
+	}
+
+	/**
+	 * Body read from a file
+	 */
+	static class FileBody extends RequestBody {
+		private final Path file;
+		private final long length;
+
+		FileBody(Path file, long length) {
+			this.file = file;
+			this.length = length;
+		}
+
+		@Override
+		public long contentLength() {
+			return length;
+		}
+
+		@Override
+		public InputStream openStream() throws IOException {
+			InputStream in = Files.newInputStream(file);
+			// exactly the declared length, as sent in Content-Length
+			return new FilterInputStream(in) {
+				private long remaining = length;
+
+				@Override
+				public int read() throws IOException {
+					byte[] b = new byte[1];
+					return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+				}
+
+				@Override
+				public int read(byte[] b, int off, int len) throws IOException {
+					if (remaining == 0) {
+						return -1;
+					}
+					int n = super.read(b, off, (int) Math.min(len, remaining));
+					if (n < 0) {
+						throw changed();
+					}
+					remaining -= n;
+					return n;
+				}
+			};
+		}
+
+		@Override
+		public void writeTo(OutputStream out) throws IOException {
+			try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+				WritableByteChannel target = Channels.newChannel(out);
+				long position = 0;
+				while (position < length) {
+					long n = channel.transferTo(position, length - position, target);
+					if (n <= 0) {
+						throw changed();
+					}
+					position += n;
+				}
+			}
+		}
+
+		@Override
+		boolean isReplayable() {
+			return true;
+		}
+
+		private IOException changed() {
+			return new IOException("File changed while sent, shorter than " + length + " bytes: " + file);
+		}
+
+		Path file() {
+			return file;
+		}
+	}
+
+	/**
+	 * Body read once from a stream
+	 */
+	static class StreamBody extends RequestBody {
+		private InputStream in;
+		private final long length;
+
+		StreamBody(InputStream in, long length) {
+			this.in = in;
+			this.length = length;
+		}
+
+		@Override
+		public long contentLength() {
+			return length;
+		}
+
+		@Override
+		public synchronized InputStream openStream() throws IOException {
+			if (in == null) {
+				throw new IOException("Request body already sent");
+			}
+			InputStream result = in;
+			in = null;
+			return result;
+		}
+	}
+
+	/**
+	 * Body read once from a supplier of chunks
+	 */
+	static class ChunksBody extends RequestBody {
+		private final Supplier<byte[]> chunks;
+		private boolean opened;
+
+		ChunksBody(Supplier<byte[]> chunks) {
+			this.chunks = chunks;
+		}
+
+		@Override
+		public long contentLength() {
+			return -1;
+		}
+
+		@Override
+		public synchronized InputStream openStream() throws IOException {
+			if (opened) {
+				throw new IOException("Request body already sent");
+			}
+			opened = true;
+			return new InputStream() {
+				private byte[] chunk = new byte[0];
+				private int position;
+
+				@Override
+				public int read() throws IOException {
+					byte[] b = new byte[1];
+					return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+				}
+
+				@Override
+				public int read(byte[] b, int off, int len) {
+					if (len == 0) {
+						return 0;
+					}
+					while (chunk != null && position == chunk.length) {
+						chunk = chunks.get();
+						position = 0;
+					}
+					if (chunk == null) {
+						return -1;
+					}
+					int n = Math.min(len, chunk.length - position);
+					System.arraycopy(chunk, position, b, off, n);
+					position += n;
+					return n;
+				}
+			};
+		}
+	}
+}
@@ -1,23 +1,47 @@
 package com.github.fetch;
 
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-
-import org.apache.commons.io.IOUtils;
+import java.util.Map.Entry;
+import java.util.function.Consumer;
 
 import com.github.promise.Promise;
-import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
 import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.MalformedJsonException;
 
 public class Response {
+	private static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+
+	// reads presized from Content-Length up to this many pool buffers, then grown
+	private static final int PRESIZE_BUFFERS = 4;
+	private static final int DEFAULT_READ_SIZE = 8 * 1024;
+
 	private String url;
 	private int status = -1;
 	private InputStream body;
 	private Map<String, List<String>> headers = new LinkedHashMap<>();
+	private byte[] bufferedBody;
 
 	public String getUrl() {
 		return url;
@@ -51,6 +75,91 @@ public class Response {
 		this.headers = headers;
 	}
 
+	/**
+	 * Read the whole body in memory, so that the response can be copied
+	 */
+	void buffer() throws IOException {
+		if (bufferedBody != null) {
+			return;
+		}
+		if (body != null) {
+			bufferedBody = readBytes();
+		} else {
+			bufferedBody = new byte[0];
+		}
+		body = new ByteArrayInputStream(bufferedBody);
+	}
+
+	/**
+	 * The whole body read by {@link #buffer()}, or null
+	 */
+	byte[] getBufferedBody() {
+		return bufferedBody;
+	}
+
+	/**
+	 * Set the body from bytes in memory
+	 */
+	void setBufferedBody(byte[] bytes) {
+		bufferedBody = bytes;
+		body = new ByteArrayInputStream(bytes);
+	}
+
+	/**
+	 * A copy of a buffered response, with its own headers and body stream
+	 */
+	Response copy() {
+		Response copy = new Response();
+		copy.url = url;
+		copy.status = status;
+		copy.headers = copyHeaders(headers);
+		copy.bufferedBody = bufferedBody;
+		copy.body = new ByteArrayInputStream(bufferedBody);
+		return copy;
+	}
+
+	/**
+	 * A copy of given headers, that can be modified without affecting them
+	 */
+	static Map<String, List<String>> copyHeaders(Map<String, List<String>> headers) {
+		Map<String, List<String>> copy = new LinkedHashMap<>();
+		for (Entry<String, List<String>> entry : headers.entrySet()) {
+			copy.put(entry.getKey(), new ArrayList<>(entry.getValue()));
+		}
+		return copy;
+	}
+
+	/**
+	 * Return the first value of given header, or null. Header names are case
+	 * insensitive.
+	 * 
+	 * @param name
+	 */
+	public String getHeader(String name) {
+		for (Entry<String, List<String>> entry : headers.entrySet()) {
+			if (name.equalsIgnoreCase(entry.getKey()) && !entry.getValue().isEmpty()) {
+				return entry.getValue().get(0);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * The value of the <code>Content-Length</code> header, or -1 if it is missing
+	 * or invalid
+	 */
+	long contentLength() {
+		String value = getHeader("Content-Length");
+		if (value == null) {
+			return -1;
+		}
+		try {
+			return Long.parseLong(value.trim());
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
 	/**
 	 * True if status is between 200 and 299.
 	 */
@@ -68,12 +177,32 @@ public class Response {
 
 	/**
 	 * Returns a promise that resolves with a text representation of the response
-	 * body
+	 * body, decoded as it is read
 	 */
 	public Promise<String> text(String charset) {
-		return new Promise<>((resolve, reject) -> {
+		if (this.body instanceof AsyncBody) {
+			FetchPromise<String> text = new FetchPromise<>(null);
+			TextDecoder decoder;
 			try {
-				resolve.accept(IOUtils.toString(this.body, charset));
+				decoder = new TextDecoder(Charset.forName(charset), contentLength(), BufferPool.getDefault());
+			} catch (IllegalArgumentException e) {
+				closeBody();
+				text.fail(e);
+				return text;
+			}
+			readAsync(decoder::feed, () -> text.fulfill(decoder.finish()), (e) -> {
+				decoder.release();
+				text.fail(e);
+			});
+			return text;
+		}
+		return new Promise<>((resolve, reject) -> {
+			if (this.body == null) {
+				resolve.accept("");
+				return;
+			}
+			try (ReadableByteChannel in = Channels.newChannel(this.body)) {
+				resolve.accept(TextDecoder.decode(in, Charset.forName(charset), contentLength(), BufferPool.getDefault()));
 			} catch (IOException e) {
 				reject.accept(e);
 			}
@@ -81,27 +210,401 @@ public class Response {
 	}
 
 	/**
-	 * Returns a promise that resolves with a text representation of the response
-	 * body
+	 * Returns a promise that resolves with the bytes of the response body. The
+	 * array is presized from the <code>Content-Length</code> header, if any.
 	 */
 	public Promise<byte[]> arrayBuffer() {
+		if (this.body instanceof AsyncBody) {
+			FetchPromise<byte[]> bytes = new FetchPromise<>(null);
+			long length = contentLength();
+			ByteBuffer[] buffer = { ByteBuffer
+					.allocate(length < 0 ? DEFAULT_READ_SIZE : presize(length, BufferPool.getDefault())) };
+			readAsync((chunk) -> buffer[0] = append(buffer[0], chunk, null), () -> {
+				ByteBuffer b = buffer[0];
+				bytes.fulfill(b.position() == b.capacity() ? b.array() : Arrays.copyOf(b.array(), b.position()));
+			}, bytes::fail);
+			return bytes;
+		}
 		return new Promise<>((resolve, reject) -> {
 			try {
-				resolve.accept(IOUtils.toByteArray(this.body));
+				resolve.accept(readBytes());
 			} catch (IOException e) {
 				reject.accept(e);
 			}
 		});
 	}
 
+	/**
+	 * Read and close the body, into an array presized from Content-Length
+	 */
+	private byte[] readBytes() throws IOException {
+		if (this.body == null) {
+			return new byte[0];
+		}
+		long length = contentLength();
+		byte[] bytes = new byte[length < 0 ? DEFAULT_READ_SIZE : presize(length, BufferPool.getDefault())];
+		int size = 0;
+		try (InputStream in = this.body) {
+			while (true) {
+				if (size == bytes.length) {
+					// check for the end before growing an exactly presized array
+					int b = in.read();
+					if (b < 0) {
+						break;
+					}
+					bytes = Arrays.copyOf(bytes, grow(bytes.length));
+					bytes[size++] = (byte) b;
+				}
+				int n = in.read(bytes, size, bytes.length - size);
+				if (n < 0) {
+					break;
+				}
+				size += n;
+			}
+		}
+		return size == bytes.length ? bytes : Arrays.copyOf(bytes, size);
+	}
+
+	/**
+	 * Returns a promise that resolves with the response body in a buffer of the
+	 * default pool, ready to be read. See {@link #byteBuffer(BufferPool)}.
+	 */
+	public Promise<ByteBuffer> byteBuffer() {
+		return byteBuffer(BufferPool.getDefault());
+	}
+
+	/**
+	 * Returns a promise that resolves with the response body in a buffer, ready to
+	 * be read. If the body fits, the buffer is taken from given pool, and should be
+	 * given back with <code>pool.release(buffer)</code> once read; otherwise, it is
+	 * a larger buffer of the same kind (direct or not), that the pool ignores when
+	 * released.
+	 * 
+	 * @param pool
+	 */
+	public Promise<ByteBuffer> byteBuffer(BufferPool pool) {
+		if (this.body instanceof AsyncBody) {
+			FetchPromise<ByteBuffer> result = new FetchPromise<>(null);
+			ByteBuffer[] buffer = { acquire(pool) };
+			readAsync((chunk) -> buffer[0] = append(buffer[0], chunk, pool), () -> {
+				buffer[0].flip();
+				result.fulfill(buffer[0]);
+			}, (e) -> {
+				pool.release(buffer[0]);
+				result.fail(e);
+			});
+			return result;
+		}
+		return new Promise<>((resolve, reject) -> {
+			ByteBuffer buffer = acquire(pool);
+			if (this.body == null) {
+				buffer.flip();
+				resolve.accept(buffer);
+				return;
+			}
+			try (ReadableByteChannel in = Channels.newChannel(this.body)) {
+				while (true) {
+					if (!buffer.hasRemaining()) {
+						// check for the end before growing an exactly presized buffer
+						int b = this.body.read();
+						if (b < 0) {
+							break;
+						}
+						ByteBuffer larger = allocate(grow(buffer.capacity()), buffer.isDirect());
+						buffer.flip();
+						larger.put(buffer);
+						pool.release(buffer);
+						buffer = larger;
+						buffer.put((byte) b);
+					}
+					if (in.read(buffer) < 0) {
+						break;
+					}
+				}
+				buffer.flip();
+				resolve.accept(buffer);
+			} catch (IOException e) {
+				pool.release(buffer);
+				reject.accept(e);
+			}
+		});
+	}
+
+	/**
+	 * A buffer for the whole body: from given pool if it fits, else presized from
+	 * Content-Length
+	 */
+	private ByteBuffer acquire(BufferPool pool) {
+		long length = contentLength();
+		return length > pool.getBufferSize() ? allocate(presize(length, pool), pool.isDirect()) : pool.acquire();
+	}
+
+	/**
+	 * Append a chunk to given buffer, or to a larger copy of it
+	 *
+	 * @param pool the pool the buffer may come from, or null
+	 * @return the buffer holding the bytes
+	 */
+	private static ByteBuffer append(ByteBuffer buffer, ByteBuffer chunk, BufferPool pool) {
+		if (buffer.remaining() < chunk.remaining()) {
+			ByteBuffer larger = allocate(Math.max(grow(buffer.capacity()), buffer.position() + chunk.remaining()),
+					buffer.isDirect());
+			buffer.flip();
+			larger.put(buffer);
+			if (pool != null) {
+				pool.release(buffer);
+			}
+			buffer = larger;
+		}
+		return buffer.put(chunk);
+	}
+
+	/**
+	 * Read a body received by I/O callbacks, passing each chunk to
+	 * <code>onChunk</code> in the thread that received it, without waiting in
+	 * any thread. The chunk is only valid during the call.
+	 *
+	 * @param onChunk
+	 * @param onEnd   called at the end of the body
+	 * @param onError called if the body cannot be read, once closed
+	 */
+	private void readAsync(Consumer<ByteBuffer> onChunk, Runnable onEnd, Consumer<Exception> onError) {
+		readAsync((AsyncBody) this.body, new byte[DEFAULT_CHUNK_SIZE], onChunk, onEnd, onError);
+	}
+
+	private void readAsync(AsyncBody in, byte[] chunk, Consumer<ByteBuffer> onChunk, Runnable onEnd,
+			Consumer<Exception> onError) {
+		try {
+			int n;
+			while ((n = in.readReceived(chunk, 0, chunk.length)) > 0) {
+				onChunk.accept(ByteBuffer.wrap(chunk, 0, n));
+			}
+			if (n < 0) {
+				onEnd.run();
+			} else {
+				in.receive(() -> readAsync(in, chunk, onChunk, onEnd, onError), onError);
+			}
+		} catch (IOException | RuntimeException e) {
+			closeBody();
+			onError.accept(e);
+		}
+	}
+
+	private void closeBody() {
+		try {
+			if (this.body != null) {
+				this.body.close();
+			}
+		} catch (IOException e) {
+			// ignore
+		}
+	}
+
+	/**
+	 * Initial size of a read of given length, bounded by the buffer size of given
+	 * pool: a wrong Content-Length must not allocate much
+	 */
+	private static int presize(long length, BufferPool pool) {
+		return (int) Math.min((long) PRESIZE_BUFFERS * pool.getBufferSize(), length);
+	}
+
+	private static ByteBuffer allocate(int capacity, boolean direct) {
+		return direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+	}
+
+	private static int grow(int capacity) {
+		if (capacity >= Integer.MAX_VALUE - 8) {
+			throw new OutOfMemoryError("Response body too large");
+		}
+		return (int) Math.min(Integer.MAX_VALUE - 8, Math.max(DEFAULT_READ_SIZE, 2L * capacity));
+	}
+
+	/**
+	 * Returns a reader of the response body, chunk by chunk, with chunks of at most
+	 * 64 KiB
+	 */
+	public BodyReader body() {
+		return body(DEFAULT_CHUNK_SIZE);
+	}
+
+	/**
+	 * Returns a reader of the response body, chunk by chunk
+	 * 
+	 * @param chunkSize max size of each chunk
+	 */
+	public BodyReader body(int chunkSize) {
+		return new BodyReader(this.body, chunkSize);
+	}
+
+	/**
+	 * Call <code>onLine</code> for each line of the response body, as they are
+	 * received, without keeping the whole body in memory. Returns a promise that
+	 * resolves with the number of lines.
+	 * 
+	 * @param onLine
+	 */
+	public Promise<Long> lines(Consumer<String> onLine) {
+		return lines(StandardCharsets.UTF_8.name(), onLine);
+	}
+
+	/**
+	 * Call <code>onLine</code> for each line of the response body, as they are
+	 * received, without keeping the whole body in memory. Returns a promise that
+	 * resolves with the number of lines.
+	 * 
+	 * @param charset
+	 * @param onLine
+	 */
+	public Promise<Long> lines(String charset, Consumer<String> onLine) {
+		return new Promise<>((resolve, reject) -> {
+			long count = 0;
+			try (BufferedReader reader = new BufferedReader(new InputStreamReader(this.body, charset))) {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					onLine.accept(line);
+					count++;
+				}
+				resolve.accept(count);
+			} catch (IOException e) {
+				reject.accept(e);
+			}
+		});
+	}
+
+	/**
+	 * Write the response body to given file, as it is received, without keeping
+	 * it in memory. The file is created or overwritten. Returns a promise that
+	 * resolves with the number of bytes written.
+	 * 
+	 * @param file
+	 */
+	public Promise<Long> toFile(Path file) {
+		return toFile(file, null);
+	}
+
+	/**
+	 * Write the response body to given file, as it is received, without keeping
+	 * it in memory, and update given digest with its bytes, e.g. to check a
+	 * SHA-256 checksum. The file is created or overwritten. Returns a promise that
+	 * resolves with the number of bytes written.
+	 * 
+	 * @param file
+	 * @param digest a MessageDigest, or null
+	 */
+	public Promise<Long> toFile(Path file, MessageDigest digest) {
+		return new Promise<>((resolve, reject) -> {
+			try (ReadableByteChannel in = Channels.newChannel(this.body);
+					FileChannel out = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+							StandardOpenOption.TRUNCATE_EXISTING)) {
+				resolve.accept(digest == null ? transfer(in, out) : transfer(in, out, digest));
+			} catch (IOException e) {
+				reject.accept(e);
+			}
+		});
+	}
+
+	/**
+	 * Copy all bytes, letting the file channel do the buffering
+	 */
+	private static long transfer(ReadableByteChannel in, FileChannel out) throws IOException {
+		long position = 0;
+		long n;
+		while ((n = out.transferFrom(in, position, Long.MAX_VALUE)) > 0) {
+			position += n;
+		}
+		return position;
+	}
+
+	/**
+	 * Copy all bytes through a pooled buffer, updating the digest
+	 */
+	private static long transfer(ReadableByteChannel in, FileChannel out, MessageDigest digest) throws IOException {
+		BufferPool pool = BufferPool.getDefault();
+		ByteBuffer buffer = pool.acquire();
+		try {
+			long total = 0;
+			while (in.read(buffer) >= 0) {
+				buffer.flip();
+				digest.update(buffer.duplicate());
+				while (buffer.hasRemaining()) {
+					total += out.write(buffer);
+				}
+				buffer.clear();
+			}
+			return total;
+		} finally {
+			pool.release(buffer);
+		}
+	}
+
 	/**
 	 * Returns a promise that resolves with the result of parsing the response body
-	 * text as JSON.
+	 * text as JSON. The body is decoded as it is read, without keeping its text in
+	 * memory.
 	 * 
 	 * @throws IOException
 	 * @throws JsonSyntaxException
 	 */
 	public <W> Promise<W> json(Class<W> type) {
-		return text().then((text) -> (new Gson().fromJson(text, type)));
+		return json((Type) type);
+	}
+
+	/**
+	 * Returns a promise that resolves with the result of parsing the response body
+	 * text as JSON, e.g. <code>json(new TypeToken&lt;List&lt;Bean&gt;&gt;()
+	 * {}.getType())</code>.
+	 * 
+	 * @param type
+	 */
+	public <W> Promise<W> json(Type type) {
+		return new Promise<>((resolve, reject) -> {
+			try (JsonReader reader = new JsonReader(new InputStreamReader(this.body, StandardCharsets.UTF_8))) {
+				W value = Json.GSON.fromJson(reader, type);
+				// rejected like Gson.fromJson(String), which reads the whole text
+				try {
+					if (reader.peek() != JsonToken.END_DOCUMENT) {
+						throw new JsonSyntaxException("JSON document was not fully consumed.");
+					}
+				} catch (MalformedJsonException e) {
+					throw new JsonSyntaxException(e);
+				}
+				resolve.accept(value);
+			} catch (IOException | JsonParseException e) {
+				reject.accept(e);
+			}
+		});
+	}
+
+	/**
+	 * Call <code>onElement</code> for each element of the response body, as they
+	 * are received, without keeping the whole document in memory. The body is
+	 * either a JSON array, or a sequence of JSON values (as in NDJSON, one per
+	 * line). Returns a promise that resolves with the number of elements.
+	 * 
+	 * @param type      type of each element
+	 * @param onElement
+	 */
+	public <W> Promise<Long> jsonStream(Class<W> type, Consumer<W> onElement) {
+		return new Promise<>((resolve, reject) -> {
+			long count = 0;
+			try (JsonReader reader = new JsonReader(new InputStreamReader(this.body, StandardCharsets.UTF_8))) {
+				reader.setLenient(true);
+				boolean array = reader.peek() == JsonToken.BEGIN_ARRAY;
+				if (array) {
+					reader.beginArray();
+				}
+				while (array ? reader.hasNext() : reader.peek() != JsonToken.END_DOCUMENT) {
+					W element = Json.GSON.fromJson(reader, type);
+					onElement.accept(element);
+					count++;
+				}
+				if (array) {
+					reader.endArray();
+				}
+				resolve.accept(count);
+			} catch (IOException | JsonParseException e) {
+				reject.accept(e);
+			}
+		});
 	}
-}
\ No newline at end of file
+}
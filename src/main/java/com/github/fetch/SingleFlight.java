@@ -0,0 +1,135 @@
+package com.github.fetch;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.github.promise.AbortController;
+import com.github.promise.AbortSignal;
+import com.github.promise.Promise;
+
+/**
+ * Coalesce concurrent identical requests into a single one. The first request
+ * for a key starts the flight; the following ones, until the response is
+ * received, subscribe to it. The response body is read once, and each
+ * subscriber gets its own copy.
+ * 
+ * The shared request is not bound to the signal of any subscriber: aborting or
+ * cancelling a subscriber only rejects its own promise, and the shared request
+ * is aborted when all of its subscribers are.
+ */
+class SingleFlight {
+
+	private final ConcurrentMap<String, Flight> flights = new ConcurrentHashMap<>();
+
+	/**
+	 * Fetch given request, or join an identical request in flight
+	 * 
+	 * @param req
+	 * @param key    identifies identical requests
+	 * @param signal the signal of the subscriber, or null
+	 */
+	Promise<Response> fetch(Request req, String key, AbortSignal signal) {
+		for (;;) {
+			Flight flight = flights.computeIfAbsent(key, (k) -> new Flight(k));
+			if (flight.subscribe()) {
+				flight.start(req);
+				return flight.subscriber(signal);
+			}
+			// settled or abandoned meanwhile
+			flights.remove(key, flight);
+		}
+	}
+
+	/**
+	 * Key identifying identical requests: method, URL and the value of given
+	 * headers, whose names are case insensitive
+	 */
+	static String key(Request req, String[] headers) {
+		StringBuilder key = new StringBuilder(req.getMethod()).append(' ').append(req.getUrl());
+		for (String header : headers) {
+			for (Entry<String, String> entry : req.getHeaders().entrySet()) {
+				if (entry.getKey().equalsIgnoreCase(header)) {
+					key.append('\n').append(header.toLowerCase(Locale.ROOT)).append(':').append(entry.getValue());
+				}
+			}
+		}
+		return key.toString();
+	}
+
+	private class Flight {
+		private final String key;
+		private final AbortController controller = new AbortController();
+
+		// guarded by this
+		private int subscribers;
+		private boolean closed;
+		private Promise<Response> shared;
+
+		Flight(String key) {
+			this.key = key;
+		}
+
+		synchronized boolean subscribe() {
+			if (closed) {
+				return false;
+			}
+			subscribers++;
+			return true;
+		}
+
+		/**
+		 * Return true if the last subscriber left
+		 */
+		synchronized boolean unsubscribe() {
+			if (closed || --subscribers > 0) {
+				return false;
+			}
+			closed = true;
+			return true;
+		}
+
+		synchronized void close() {
+			closed = true;
+		}
+
+		synchronized void start(Request req) {
+			if (shared != null) {
+				return;
+			}
+			AbortSignal signal = controller.getSignal();
+			shared = Fetch.exchange(req, signal).thenPromise((resp) -> new Promise<>((resolve, reject) -> {
+				try {
+					resp.buffer();
+					resolve.accept(resp);
+				} catch (IOException e) {
+					reject.accept(e);
+				}
+			}));
+			shared.done((resp) -> leave(), (error) -> leave());
+		}
+
+		private void leave() {
+			close();
+			flights.remove(key, this);
+		}
+
+		Promise<Response> subscriber(AbortSignal signal) {
+			// cancelled, or aborted by its signal: leave the flight
+			FetchPromise<Response> sub = new FetchPromise<>(signal, () -> {
+				if (unsubscribe()) {
+					flights.remove(key, this);
+					controller.abort();
+				}
+			});
+			Promise<Response> s;
+			synchronized (this) {
+				s = shared;
+			}
+			s.done((resp) -> sub.fulfill(resp.copy()), sub::fail);
+			return sub;
+		}
+	}
+}
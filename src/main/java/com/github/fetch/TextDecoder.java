@@ -0,0 +1,149 @@
+package com.github.fetch;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Decodes text read from a channel, or fed chunk by chunk, through a pooled
+ * byte buffer, char buffer and CharsetDecoder, instead of allocating them for
+ * each response. The pools are shared by all threads, as a thread per task
+ * would never reuse a per-thread one. Malformed input is replaced, as by an
+ * InputStreamReader.
+ */
+class TextDecoder {
+
+	private static final int CHAR_BUFFER_SIZE = 8 * 1024;
+	private static final int MAX_POOLED = 32;
+
+	// text presized from Content-Length up to this many byte buffers, then grown
+	private static final int PRESIZE_BUFFERS = 4;
+
+	private static final Map<Charset, ObjectPool<CharsetDecoder>> DECODERS = new ConcurrentHashMap<>();
+	private static final ObjectPool<CharBuffer> CHARS = new ObjectPool<>(MAX_POOLED,
+			() -> CharBuffer.allocate(CHAR_BUFFER_SIZE));
+
+	private final ObjectPool<CharsetDecoder> decoders;
+	private final CharsetDecoder decoder;
+	private final CharBuffer chars;
+	private final BufferPool pool;
+	// bytes not decoded yet
+	private final ByteBuffer bytes;
+	private final StringBuilder text;
+	private boolean released;
+
+	/**
+	 * Start decoding, with buffers taken from the pools until
+	 * {@link #finish()} or {@link #release()}
+	 *
+	 * @param charset
+	 * @param length  number of bytes, or -1 if unknown
+	 * @param pool    pool of the buffer bytes are decoded from
+	 */
+	TextDecoder(Charset charset, long length, BufferPool pool) {
+		this.decoders = decoders(charset);
+		this.decoder = decoders.acquire().reset();
+		this.chars = CHARS.acquire();
+		this.pool = pool;
+		this.bytes = pool.acquire();
+		long maxPresize = (long) PRESIZE_BUFFERS * pool.getBufferSize();
+		this.text = new StringBuilder(length < 0 ? CHAR_BUFFER_SIZE
+				: (int) Math.min(maxPresize, length * decoder.averageCharsPerByte()));
+	}
+
+	/**
+	 * Read and decode all bytes of given channel
+	 *
+	 * @param in
+	 * @param charset
+	 * @param length  number of bytes, or -1 if unknown
+	 * @param pool    pool of the buffer bytes are read into
+	 */
+	static String decode(ReadableByteChannel in, Charset charset, long length, BufferPool pool) throws IOException {
+		TextDecoder decoder = new TextDecoder(charset, length, pool);
+		try {
+			while (in.read(decoder.bytes) >= 0) {
+				decoder.decode(false);
+			}
+			return decoder.finish();
+		} finally {
+			decoder.release();
+		}
+	}
+
+	/**
+	 * Decode the given bytes. Bytes of a character split across chunks are kept
+	 * until the next one.
+	 *
+	 * @param chunk
+	 */
+	void feed(ByteBuffer chunk) {
+		while (chunk.hasRemaining()) {
+			int n = Math.min(chunk.remaining(), bytes.remaining());
+			ByteBuffer part = chunk.duplicate();
+			part.limit(part.position() + n);
+			bytes.put(part);
+			chunk.position(chunk.position() + n);
+			decode(false);
+		}
+	}
+
+	/**
+	 * Decode the remaining bytes, and give back the buffers
+	 *
+	 * @return the whole text
+	 */
+	String finish() {
+		decode(true);
+		while (decoder.flush(chars).isOverflow()) {
+			drain();
+		}
+		drain();
+		release();
+		return text.toString();
+	}
+
+	/**
+	 * Give back the buffers, e.g. because the body could not be read
+	 */
+	void release() {
+		if (!released) {
+			released = true;
+			chars.clear();
+			CHARS.release(chars);
+			decoders.release(decoder);
+			pool.release(bytes);
+		}
+	}
+
+	/**
+	 * Decode the bytes of the buffer, leaving those of an incomplete character
+	 */
+	private void decode(boolean eof) {
+		bytes.flip();
+		while (decoder.decode(bytes, chars, eof).isOverflow()) {
+			drain();
+		}
+		bytes.compact();
+	}
+
+	/**
+	 * The pool of decoders of given charset
+	 */
+	private static ObjectPool<CharsetDecoder> decoders(Charset charset) {
+		return DECODERS.computeIfAbsent(charset, (c) -> new ObjectPool<>(MAX_POOLED, () -> c.newDecoder()
+				.onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE)));
+	}
+
+	private void drain() {
+		chars.flip();
+		text.append(chars);
+		chars.clear();
+	}
+}
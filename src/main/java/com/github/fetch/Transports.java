@@ -0,0 +1,27 @@
+package com.github.fetch;
+
+/**
+ * Holder of the transports loaded from the multi-release jar
+ */
+final class Transports {
+
+	/**
+	 * The Java 11+ transport, or null
+	 */
+	static final FetchTransport HTTP_CLIENT = load("com.github.fetch.HttpClientTransport");
+
+	private Transports() {
+	}
+
+	/**
+	 * Load a transport from the multi-release jar, if we are running on a JVM that
+	 * can see it.
+	 */
+	private static FetchTransport load(String className) {
+		try {
+			return (FetchTransport) Class.forName(className).getDeclaredConstructor().newInstance();
+		} catch (ReflectiveOperationException | LinkageError e) {
+			return null;
+		}
+	}
+}
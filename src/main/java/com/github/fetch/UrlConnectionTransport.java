@@ -0,0 +1,174 @@
+package com.github.fetch;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.Map.Entry;
+import java.util.concurrent.TimeUnit;
+
+import com.github.promise.AbortSignal;
+import com.github.promise.Promise;
+import com.github.promise.TimeoutException;
+
+/**
+ * Transport based on <code>HttpURLConnection</code>, running each request in
+ * a promise thread.
+ * 
+ * If the signal has a deadline, connect and read timeouts are set to the
+ * remaining time. Aborting the signal disconnects, until the response body is
+ * read or closed.
+ */
+class UrlConnectionTransport implements FetchTransport {
+
+	static final UrlConnectionTransport INSTANCE = new UrlConnectionTransport();
+
+	@Override
+	public Promise<Response> send(Request req, AbortSignal signal) {
+		return new Promise<>((resolve, reject) -> {
+			try {
+				resolve.accept(open(req, signal));
+			} catch (IOException e) {
+				reject.accept(toError(e, signal));
+			}
+		}, signal);
+	}
+
+	/**
+	 * Send the request and receive response headers, in current thread.
+	 */
+	private static Response open(Request req, AbortSignal signal) throws IOException {
+		URL url = new URL(req.getUrl());
+
+		// URL connection channel.
+		HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+		if (signal == null) {
+			return open(req, conn, () -> {
+			});
+		}
+		Runnable listener = conn::disconnect;
+		Runnable release = () -> signal.removeAbortListener(listener);
+		signal.addAbortListener(listener);
+		if (signal.hasDeadline()) {
+			int remaining = (int) Math.min(Integer.MAX_VALUE, Math.max(1, signal.remaining(TimeUnit.MILLISECONDS)));
+			conn.setConnectTimeout(remaining);
+			conn.setReadTimeout(remaining);
+		}
+		try {
+			return open(req, conn, release);
+		} catch (IOException | RuntimeException e) {
+			release.run();
+			throw e;
+		}
+	}
+
+	/**
+	 * Send the request on given connection and receive response headers
+	 * 
+	 * @param release called once the response body is read or closed
+	 */
+	private static Response open(Request req, HttpURLConnection conn, Runnable release) throws IOException {
+		conn.setRequestMethod(req.getMethod());
+
+		// Let the run-time system (RTS) know that we want input.
+		conn.setDoInput(true);
+
+		// No caching, we want the real thing.
+		conn.setUseCaches(false);
+
+		// Specify the content type.
+		for (Entry<String, String> entry : req.getHeaders().entrySet()) {
+			conn.setRequestProperty(entry.getKey(), entry.getValue());
+		}
+
+		RequestBody body = req.getRequestBody();
+		if (!"GET".equals(req.getMethod()) && !body.isEmpty()) {
+
+			// Let the RTS know that we want to do output.
+			conn.setDoOutput(true);
+
+			// Stream the body, instead of buffering it in memory.
+			long length = body.contentLength();
+			if (length >= 0) {
+				conn.setFixedLengthStreamingMode(length);
+			} else {
+				conn.setChunkedStreamingMode(0);
+			}
+
+			// Send POST output.
+			try (OutputStream out = conn.getOutputStream()) {
+				body.writeTo(out);
+			}
+		}
+
+		Response resp = new Response();
+		resp.setStatus(conn.getResponseCode());
+		resp.setHeaders(conn.getHeaderFields());
+
+		// Get response data.
+		InputStream in = resp.getStatus() <= 399 ? conn.getInputStream() : conn.getErrorStream();
+		if (in == null) {
+			release.run();
+			in = new ByteArrayInputStream(new byte[0]);
+		}
+		resp.setBody(new BodyStream(in, release));
+		return resp;
+	}
+
+	/**
+	 * A response body calling <code>release</code> once read or closed
+	 */
+	private static class BodyStream extends FilterInputStream {
+		private final Runnable release;
+
+		BodyStream(InputStream in, Runnable release) {
+			super(in);
+			this.release = release;
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if (b < 0) {
+				release.run();
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int n = super.read(b, off, len);
+			if (n < 0) {
+				release.run();
+			}
+			return n;
+		}
+
+		@Override
+		public void close() throws IOException {
+			try {
+				super.close();
+			} finally {
+				release.run();
+			}
+		}
+	}
+
+	/**
+	 * The error rejecting a request that failed with given exception
+	 */
+	private static Exception toError(Exception e, AbortSignal signal) {
+		if (e instanceof SocketTimeoutException && signal != null && signal.hasDeadline()
+				&& signal.remaining(TimeUnit.NANOSECONDS) == 0) {
+			// connect or read timeout derived from the deadline
+			TimeoutException timeout = new TimeoutException();
+			timeout.initCause(e);
+			return timeout;
+		}
+		return e;
+	}
+}
@@ -0,0 +1,37 @@
+package com.github.promise;
+
+/**
+ * An object allowing to abort one or more promises, or fetch requests, through
+ * its {@link AbortSignal}.
+ * 
+ * @see https://developer.mozilla.org/en-US/docs/Web/API/AbortController
+ */
+public class AbortController {
+
+	private final AbortSignal signal = new AbortSignal();
+
+	/**
+	 * Return the signal to be passed to the operations to be aborted
+	 */
+	public AbortSignal getSignal() {
+		return signal;
+	}
+
+	/**
+	 * Abort all operations listening to this controller's signal, with an
+	 * AbortException
+	 */
+	public void abort() {
+		signal.signalAbort(new AbortException());
+	}
+
+	/**
+	 * Abort all operations listening to this controller's signal, with the given
+	 * reason
+	 * 
+	 * @param reason
+	 */
+	public void abort(Exception reason) {
+		signal.signalAbort(reason == null ? new AbortException() : reason);
+	}
+}
@@ -0,0 +1,27 @@
+package com.github.promise;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * The error of a promise that was cancelled, or aborted through an
+ * {@link AbortSignal}. This is the equivalent of JavaScript "AbortError".
+ */
+public class AbortException extends CancellationException {
+	private static final long serialVersionUID = 2412476352104612237L;
+
+	/**
+	 * Constructor
+	 */
+	public AbortException() {
+		super("This operation was aborted");
+	}
+
+	/**
+	 * Constructor
+	 * 
+	 * @param message
+	 */
+	public AbortException(String message) {
+		super(message);
+	}
+}
@@ -0,0 +1,347 @@
+package com.github.promise;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A signal telling whether an operation should be aborted, and why. Signals are
+ * created by {@link AbortController}.
+ * 
+ * While a promise created with a signal runs its resolver or its handlers, the
+ * signal is the "current" one: promises created meanwhile, and
+ * <code>fetch</code> requests, use it by default, so that aborting a chain of
+ * promises aborts the nested ones too.
+ * 
+ * A signal may have a deadline, after which it is aborted with a
+ * TimeoutException; operations that can bound their own waits (e.g.
+ * <code>fetch</code> connect and read timeouts) derive them from the remaining
+ * time.
+ * 
+ * @see https://developer.mozilla.org/en-US/docs/Web/API/AbortSignal
+ */
+public class AbortSignal {
+
+	private static final ThreadLocal<AbortSignal> current = new ThreadLocal<>();
+
+	private static final AbortSignal[] NO_SOURCES = {};
+
+	private volatile Exception reason;
+
+	/**
+	 * Deadline, as a System.nanoTime() value, if hasDeadline
+	 */
+	private final boolean hasDeadline;
+	private final long deadline;
+
+	/**
+	 * True if this signal is aborted by its own timer at the deadline, rather than
+	 * by a source
+	 */
+	private final boolean timed;
+
+	/**
+	 * Signals this one follows, as made by any()
+	 */
+	private final AbortSignal[] sources;
+	private final Runnable follow = this::poll;
+
+	/*
+	 * Guarded by this: listeners, null once aborted, and the timer. Sources are
+	 * followed, and the timer is scheduled, only while there are listeners: a
+	 * signal nobody listens to holds no reference from its sources nor from the
+	 * timer, and finds out whether it is aborted when asked.
+	 */
+	private Set<Runnable> listeners = new LinkedHashSet<>();
+	private Timeout timer;
+
+	AbortSignal() {
+		this(false, 0, false, NO_SOURCES);
+	}
+
+	private AbortSignal(boolean hasDeadline, long deadline, boolean timed, AbortSignal[] sources) {
+		this.hasDeadline = hasDeadline;
+		this.deadline = deadline;
+		this.timed = timed;
+		this.sources = sources;
+	}
+
+	/**
+	 * Return a signal that will be aborted with a TimeoutException after the
+	 * given time. No thread is used while waiting.
+	 * 
+	 * @param ms
+	 */
+	public static AbortSignal timeout(long ms) {
+		return timeoutNanos(TimeUnit.MILLISECONDS.toNanos(Math.max(0, ms)));
+	}
+
+	/**
+	 * Return a signal that will be aborted with a TimeoutException at the given
+	 * instant. No thread is used while waiting.
+	 * 
+	 * @param deadline
+	 */
+	public static AbortSignal deadline(Instant deadline) {
+		return timeoutNanos(Math.max(0, Duration.between(Instant.now(), deadline).toNanos()));
+	}
+
+	private static AbortSignal timeoutNanos(long nanos) {
+		return new AbortSignal(true, System.nanoTime() + nanos, true, NO_SOURCES);
+	}
+
+	/**
+	 * Return a signal that is aborted as soon as any of the given signals is
+	 * aborted, with the same reason. Its deadline is the earliest one. Null
+	 * signals are ignored.
+	 * 
+	 * The returned signal listens to the given ones only while it has listeners
+	 * itself, e.g. promises created with it that are not settled yet: deriving
+	 * many short-lived signals from a long-lived one does not accumulate
+	 * listeners on it.
+	 * 
+	 * @param signals
+	 */
+	public static AbortSignal any(AbortSignal... signals) {
+		boolean hasDeadline = false;
+		long deadline = 0;
+		List<AbortSignal> sources = new ArrayList<>(signals.length);
+		for (AbortSignal s : signals) {
+			if (s != null) {
+				sources.add(s);
+				if (s.hasDeadline && (!hasDeadline || s.deadline - deadline < 0)) {
+					hasDeadline = true;
+					deadline = s.deadline;
+				}
+			}
+		}
+		return new AbortSignal(hasDeadline, deadline, false, sources.toArray(NO_SOURCES));
+	}
+
+	/**
+	 * Return a signal that is already aborted with the given reason
+	 * 
+	 * @param reason
+	 */
+	public static AbortSignal abort(Exception reason) {
+		AbortSignal signal = new AbortSignal();
+		signal.signalAbort(reason == null ? new AbortException() : reason);
+		return signal;
+	}
+
+	/**
+	 * Return the signal of the promise whose resolver or handler is running in
+	 * current thread, if any
+	 */
+	public static AbortSignal current() {
+		return current.get();
+	}
+
+	/**
+	 * Make the given signal the current one, returning the previous one
+	 */
+	static AbortSignal enter(AbortSignal signal) {
+		AbortSignal previous = current.get();
+		current.set(signal);
+		return previous;
+	}
+
+	/**
+	 * Restore the signal returned by <code>enter</code>
+	 */
+	static void exit(AbortSignal previous) {
+		if (previous == null) {
+			current.remove();
+		} else {
+			current.set(previous);
+		}
+	}
+
+	/**
+	 * True if the operation should be aborted
+	 */
+	public boolean isAborted() {
+		return getReason() != null;
+	}
+
+	/**
+	 * True if this signal will be aborted at some deadline
+	 */
+	public boolean hasDeadline() {
+		return hasDeadline;
+	}
+
+	/**
+	 * Time remaining before the deadline, never negative, or Long.MAX_VALUE if
+	 * there is no deadline
+	 * 
+	 * @param unit
+	 */
+	public long remaining(TimeUnit unit) {
+		if (!hasDeadline) {
+			return Long.MAX_VALUE;
+		}
+		return unit.convert(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * The reason of the abort, or null if not aborted
+	 */
+	public Exception getReason() {
+		return poll();
+	}
+
+	/**
+	 * Throw the reason of the abort, if aborted. Checked reasons are wrapped in an
+	 * AbortException.
+	 */
+	public void throwIfAborted() {
+		Exception r = getReason();
+		if (r instanceof RuntimeException) {
+			throw (RuntimeException) r;
+		} else if (r != null) {
+			AbortException ex = new AbortException(r.getMessage());
+			ex.initCause(r);
+			throw ex;
+		}
+	}
+
+	/**
+	 * Add a listener to be called, once, when the signal is aborted. If the
+	 * signal is already aborted, the listener is called immediately.
+	 * 
+	 * @param listener
+	 */
+	public void addAbortListener(Runnable listener) {
+		if (!tryAddAbortListener(listener)) {
+			poll();
+			listener.run();
+		}
+	}
+
+	/**
+	 * Remove a listener, e.g. because the operation completed
+	 * 
+	 * @param listener
+	 */
+	public void removeAbortListener(Runnable listener) {
+		synchronized (this) {
+			if (listeners != null && listeners.remove(listener) && listeners.isEmpty()) {
+				unfollow(sources.length);
+			}
+		}
+	}
+
+	/**
+	 * Number of listeners, for tests
+	 */
+	synchronized int getListenerCount() {
+		return listeners == null ? 0 : listeners.size();
+	}
+
+	/**
+	 * Add a listener unless the signal is aborted, or should be because of its
+	 * deadline or sources
+	 * 
+	 * @return false if the listener was not added
+	 */
+	private synchronized boolean tryAddAbortListener(Runnable listener) {
+		if (listeners == null || (listeners.isEmpty() && !follow())) {
+			return false;
+		}
+		listeners.add(listener);
+		return true;
+	}
+
+	/**
+	 * Start following the sources and the deadline, with the lock held
+	 * 
+	 * @return false if one of them is already over
+	 */
+	private boolean follow() {
+		if (timed) {
+			long nanos = deadline - System.nanoTime();
+			if (nanos <= 0) {
+				return false;
+			}
+			timer = SetTimeout.getTimer().schedule(() -> signalAbort(new TimeoutException()), nanos,
+					TimeUnit.NANOSECONDS);
+		}
+		for (int i = 0; i < sources.length; i++) {
+			if (!sources[i].tryAddAbortListener(follow)) {
+				unfollow(i);
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Stop following the first sources and the deadline, with the lock held
+	 * 
+	 * @param n number of sources followed
+	 */
+	private void unfollow(int n) {
+		for (int i = 0; i < n; i++) {
+			sources[i].removeAbortListener(follow);
+		}
+		if (timer != null) {
+			timer.cancel();
+			timer = null;
+		}
+	}
+
+	/**
+	 * Abort now if the deadline is past or a source is aborted
+	 * 
+	 * @return the reason of the abort, or null
+	 */
+	private Exception poll() {
+		if (reason == null) {
+			if (timed && deadline - System.nanoTime() <= 0) {
+				signalAbort(new TimeoutException());
+			}
+			for (AbortSignal s : sources) {
+				Exception r = s.getReason();
+				if (r != null) {
+					signalAbort(r);
+					break;
+				}
+			}
+		}
+		return reason;
+	}
+
+	/**
+	 * Abort, calling all listeners
+	 * 
+	 * @return false if already aborted
+	 */
+	boolean signalAbort(Exception reason) {
+		List<Runnable> toCall;
+		synchronized (this) {
+			if (listeners == null) {
+				return false;
+			}
+			this.reason = reason;
+			toCall = new ArrayList<>(listeners);
+			if (!listeners.isEmpty()) {
+				unfollow(sources.length);
+			}
+			listeners = null;
+		}
+		for (Runnable listener : toCall) {
+			try {
+				listener.run();
+			} catch (RuntimeException ex) {
+				Thread thread = Thread.currentThread();
+				thread.getUncaughtExceptionHandler().uncaughtException(thread, ex);
+			}
+		}
+		return true;
+	}
+}
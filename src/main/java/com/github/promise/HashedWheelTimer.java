@@ -0,0 +1,357 @@
+package com.github.promise;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A timer scheduling any number of tasks with a single thread.
+ * 
+ * Timeouts are stored in a circular array of buckets (the "wheel"); each tick
+ * the timer thread expires the due timeouts of one bucket, so that expiration
+ * is accurate up to one tick. Expired tasks are run on an Executor, not on the
+ * timer thread. Without an Executor of its own, a timer uses a small pool of
+ * daemon threads shared by all timers, so that expirations never start a
+ * thread; tasks that block or run long should hand their work to another
+ * Executor.
+ * 
+ * Periodic tasks reuse the same Timeout for all their runs. If a fixed-rate
+ * task is still running when its next run is due, that run is skipped; if the
+ * timer falls behind, missed runs are skipped too, instead of running in a
+ * burst.
+ * 
+ * @see http://www.cs.columbia.edu/~nahum/w6998/papers/sosp87-timing-wheels.pdf
+ */
+public class HashedWheelTimer {
+
+	private static final AtomicInteger timerNumber = new AtomicInteger(1);
+
+	// tasks queued when all dispatch threads are busy, then run by the timer
+	private static final int DISPATCH_QUEUE_SIZE = 4096;
+
+	private final long tickNanos;
+	private final Timeout[] wheel;
+	private final int mask;
+	private final Executor executor;
+	private final long startTime;
+	private final Object lock = new Object();
+
+	// guarded by lock
+	private long tick;
+	private int pending;
+	private boolean stopped;
+
+	/**
+	 * Create a timer with 10 ms resolution, running tasks on the shared dispatch
+	 * threads
+	 */
+	public HashedWheelTimer() {
+		this(10, TimeUnit.MILLISECONDS, 512, null);
+	}
+
+	/**
+	 * Create a timer
+	 * 
+	 * @param tickDuration  resolution of the timer
+	 * @param unit          time unit of <code>tickDuration</code>
+	 * @param ticksPerWheel number of buckets, rounded up to a power of 2
+	 * @param executor      Executor running expired tasks, or null for the
+	 *                      shared dispatch threads
+	 */
+	public HashedWheelTimer(long tickDuration, TimeUnit unit, int ticksPerWheel, Executor executor) {
+		if (tickDuration <= 0) {
+			throw new IllegalArgumentException("tickDuration must be positive: " + tickDuration);
+		}
+		if (ticksPerWheel <= 0 || ticksPerWheel > (1 << 30)) {
+			throw new IllegalArgumentException("ticksPerWheel out of range: " + ticksPerWheel);
+		}
+		int size = 1;
+		while (size < ticksPerWheel) {
+			size <<= 1;
+		}
+		this.tickNanos = unit.toNanos(tickDuration);
+		this.wheel = new Timeout[size];
+		this.mask = size - 1;
+		this.executor = executor;
+		this.startTime = System.nanoTime();
+
+		Thread ticker = PromiseExecutors.newDaemonThreadFactory("promise4j-timer-" + timerNumber.getAndIncrement())
+				.newThread(this::run);
+		ticker.start();
+	}
+
+	/**
+	 * Run given task after given delay
+	 * 
+	 * @param task
+	 * @param delay
+	 * @param unit
+	 */
+	public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+		return schedule(new Timeout(this, task, 0, false), unit.toNanos(delay));
+	}
+
+	/**
+	 * Run given task periodically, every <code>period</code>, starting after
+	 * <code>initialDelay</code>. Runs are not delayed by previous ones, and do not
+	 * drift.
+	 * 
+	 * @param task
+	 * @param initialDelay
+	 * @param period
+	 * @param unit
+	 */
+	public Timeout scheduleAtFixedRate(Runnable task, long initialDelay, long period, TimeUnit unit) {
+		return schedule(new Timeout(this, task, checkPeriod(period, unit), true), unit.toNanos(initialDelay));
+	}
+
+	/**
+	 * Run given task periodically, waiting <code>delay</code> between the end of
+	 * a run and the start of the next one.
+	 * 
+	 * @param task
+	 * @param initialDelay
+	 * @param delay
+	 * @param unit
+	 */
+	public Timeout scheduleWithFixedDelay(Runnable task, long initialDelay, long delay, TimeUnit unit) {
+		return schedule(new Timeout(this, task, checkPeriod(delay, unit), false), unit.toNanos(initialDelay));
+	}
+
+	private static long checkPeriod(long period, TimeUnit unit) {
+		if (period <= 0) {
+			throw new IllegalArgumentException("period must be positive: " + period);
+		}
+		return unit.toNanos(period);
+	}
+
+	private Timeout schedule(Timeout timeout, long delayNanos) {
+		synchronized (lock) {
+			if (stopped) {
+				throw new IllegalStateException("Timer stopped");
+			}
+			addAfter(timeout, delayNanos);
+		}
+		return timeout;
+	}
+
+	/**
+	 * Put back a fixed-delay timeout after a run, unless cancelled
+	 */
+	void rearm(Timeout timeout) {
+		synchronized (lock) {
+			if (!stopped && timeout.state == Timeout.PENDING && timeout.bucket == -1) {
+				addAfter(timeout, timeout.period);
+			}
+		}
+	}
+
+	/**
+	 * Put timeout in its bucket, given its delay from now. Must hold lock.
+	 */
+	private void addAfter(Timeout timeout, long delayNanos) {
+		long now = System.nanoTime() - startTime;
+		if (pending == 0) {
+			// the timer thread is idle: skip the empty ticks it did not process
+			tick = Math.max(tick, now / tickNanos);
+			lock.notifyAll();
+		}
+		timeout.deadline = now + Math.max(0, delayNanos);
+		add(timeout);
+	}
+
+	/**
+	 * Number of timeouts not yet expired nor cancelled
+	 */
+	public int pendingTimeouts() {
+		synchronized (lock) {
+			return pending;
+		}
+	}
+
+	/**
+	 * Stop the timer thread. Pending timeouts will never expire.
+	 */
+	public void stop() {
+		synchronized (lock) {
+			stopped = true;
+			lock.notifyAll();
+		}
+	}
+
+	/**
+	 * Return the Executor running expired tasks
+	 */
+	public Executor getExecutor() {
+		return executor == null ? SharedExecutor.INSTANCE : executor;
+	}
+
+	/**
+	 * The dispatch threads of timers without an Executor: one per processor,
+	 * stopped when idle. The queue is an array, so that dispatching allocates
+	 * nothing; if it is full, the timer thread runs the task itself.
+	 */
+	private static class SharedExecutor {
+		static final ThreadPoolExecutor INSTANCE;
+		static {
+			int nThreads = Math.max(2, Runtime.getRuntime().availableProcessors());
+			INSTANCE = new ThreadPoolExecutor(nThreads, nThreads, 60, TimeUnit.SECONDS,
+					new ArrayBlockingQueue<>(DISPATCH_QUEUE_SIZE),
+					PromiseExecutors.newDaemonThreadFactory("promise4j-timer-dispatch"),
+					new ThreadPoolExecutor.CallerRunsPolicy());
+			INSTANCE.allowCoreThreadTimeOut(true);
+		}
+	}
+
+	/**
+	 * Put timeout in its bucket, given its deadline. Must hold lock.
+	 */
+	private void add(Timeout timeout) {
+		long calculated = timeout.deadline / tickNanos;
+		timeout.remainingRounds = (calculated - tick) / wheel.length;
+		int bucket = (int) (Math.max(calculated, tick) & mask);
+
+		timeout.bucket = bucket;
+		timeout.prev = null;
+		timeout.next = wheel[bucket];
+		if (wheel[bucket] != null) {
+			wheel[bucket].prev = timeout;
+		}
+		wheel[bucket] = timeout;
+		pending++;
+	}
+
+	/**
+	 * Remove timeout from its bucket. Must hold lock.
+	 */
+	private void remove(Timeout timeout) {
+		if (timeout.prev != null) {
+			timeout.prev.next = timeout.next;
+		} else {
+			wheel[timeout.bucket] = timeout.next;
+		}
+		if (timeout.next != null) {
+			timeout.next.prev = timeout.prev;
+		}
+		timeout.prev = null;
+		timeout.next = null;
+		timeout.bucket = -1;
+		pending--;
+	}
+
+	boolean cancel(Timeout timeout) {
+		synchronized (lock) {
+			if (timeout.state != Timeout.PENDING) {
+				return false;
+			}
+			if (timeout.bucket != -1) {
+				// not in the wheel while a fixed-delay task is running
+				remove(timeout);
+			}
+			timeout.state = Timeout.CANCELLED;
+			return true;
+		}
+	}
+
+	/**
+	 * Timer thread main loop
+	 */
+	private void run() {
+		try {
+			for (;;) {
+				Timeout expired = null;
+				synchronized (lock) {
+					if (stopped) {
+						return;
+					}
+					if (pending == 0) {
+						lock.wait();
+						continue;
+					}
+					long wait = startTime + (tick + 1) * tickNanos - System.nanoTime();
+					if (wait > 0) {
+						lock.wait(wait / 1_000_000, (int) (wait % 1_000_000));
+						continue;
+					}
+					expired = expireBucket();
+					tick++;
+					rearmFixedRate(expired);
+				}
+				dispatch(expired);
+			}
+		} catch (InterruptedException e) {
+			stop();
+		}
+	}
+
+	/**
+	 * Remove due timeouts from current bucket and return them as a list linked
+	 * through <code>nextExpired</code>. Must hold lock.
+	 */
+	private Timeout expireBucket() {
+		Timeout expired = null;
+		Timeout timeout = wheel[(int) (tick & mask)];
+		while (timeout != null) {
+			Timeout next = timeout.next;
+			if (timeout.remainingRounds <= 0) {
+				remove(timeout);
+				if (timeout.period == 0) {
+					timeout.state = Timeout.EXPIRED;
+				}
+				timeout.nextExpired = expired;
+				expired = timeout;
+			} else {
+				timeout.remainingRounds--;
+			}
+			timeout = next;
+		}
+		return expired;
+	}
+
+	/**
+	 * Put expired fixed-rate timeouts back in the wheel, at their next due time
+	 * after now. Must hold lock, after current tick has been processed.
+	 */
+	private void rearmFixedRate(Timeout expired) {
+		long now = System.nanoTime() - startTime;
+		for (Timeout timeout = expired; timeout != null; timeout = timeout.nextExpired) {
+			if (timeout.period > 0 && timeout.fixedRate) {
+				long deadline = timeout.deadline + timeout.period;
+				if (deadline <= now) {
+					// skip missed runs
+					deadline += ((now - deadline) / timeout.period + 1) * timeout.period;
+				}
+				timeout.deadline = deadline;
+				add(timeout);
+			}
+		}
+	}
+
+	/**
+	 * Submit expired tasks to the Executor, outside of the lock
+	 */
+	private void dispatch(Timeout expired) {
+		Executor exec = getExecutor();
+		while (expired != null) {
+			Timeout next = expired.nextExpired;
+			expired.nextExpired = null;
+			if (expired.period > 0) {
+				if (expired.running || expired.state == Timeout.CANCELLED) {
+					// previous run overran, or cancelled in the meantime
+					expired = next;
+					continue;
+				}
+				expired.running = true;
+			}
+			try {
+				exec.execute(expired.fire);
+			} catch (RuntimeException ex) {
+				Thread current = Thread.currentThread();
+				current.getUncaughtExceptionHandler().uncaughtException(current, ex);
+			}
+			expired = next;
+		}
+	}
+}
@@ -0,0 +1,105 @@
+package com.github.promise;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A FIFO queue of short tasks (promise handlers) to be run "at next tick" on a
+ * given Executor, like JavaScript microtasks.
+ * 
+ * At most one drain task per queue is submitted to the Executor at a time; it
+ * runs up to <code>BATCH_SIZE</code> tasks, then resubmits itself if the queue
+ * is not empty, so that other work on the Executor is not starved. A task is
+ * never run by the thread that enqueued it while it is still enqueueing, i.e.
+ * <code>Promise.done()</code> always returns before its handler is called.
+ */
+final class MicrotaskQueue implements Runnable {
+
+	static final int BATCH_SIZE = 1024;
+
+	/**
+	 * One queue per Executor. Values are weak so that Executor's (and their
+	 * queues) can be garbage-collected once no promise uses them.
+	 */
+	private static final Map<Executor, WeakReference<MicrotaskQueue>> queues = new WeakHashMap<>();
+
+	/**
+	 * The queue last returned by <code>of</code>: most promises share the same
+	 * Executor, whose queue is then found without taking the lock of the map
+	 */
+	private static volatile MicrotaskQueue last;
+
+	private final Executor executor;
+	private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+	private final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+	private MicrotaskQueue(Executor executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * Return the queue for the given Executor, creating it if necessary
+	 * 
+	 * @param executor
+	 */
+	static MicrotaskQueue of(Executor executor) {
+		MicrotaskQueue queue = last;
+		if (queue != null && queue.executor == executor) {
+			return queue;
+		}
+		synchronized (queues) {
+			WeakReference<MicrotaskQueue> ref = queues.get(executor);
+			queue = ref == null ? null : ref.get();
+			if (queue == null) {
+				queue = new MicrotaskQueue(executor);
+				queues.put(executor, new WeakReference<>(queue));
+			}
+		}
+		last = queue;
+		return queue;
+	}
+
+	/**
+	 * Append a task to the queue, and make sure a drain is scheduled
+	 * 
+	 * @param task
+	 */
+	void enqueue(Runnable task) {
+		tasks.add(task);
+		if (scheduled.compareAndSet(false, true)) {
+			executor.execute(this);
+		}
+	}
+
+	/**
+	 * Run a batch of tasks
+	 */
+	@Override
+	public void run() {
+		try {
+			for (int i = 0; i < BATCH_SIZE; i++) {
+				Runnable task = tasks.poll();
+				if (task == null) {
+					break;
+				}
+				try {
+					task.run();
+				} catch (RuntimeException ex) {
+					Thread current = Thread.currentThread();
+					current.getUncaughtExceptionHandler().uncaughtException(current, ex);
+				}
+			}
+		} finally {
+			scheduled.set(false);
+			// tasks could have been added after our last poll(), by a thread that saw
+			// scheduled == true
+			if (!tasks.isEmpty() && scheduled.compareAndSet(false, true)) {
+				executor.execute(this);
+			}
+		}
+	}
+}
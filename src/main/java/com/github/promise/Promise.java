@@ -1,110 +1,671 @@
 package com.github.promise;
 
-import static com.github.promise.SetTimeout.setTimeout;
-
+import java.time.Instant;
 import java.util.ArrayList;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Executors;
+import java.util.concurrent.Executor;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
 import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.BooleanSupplier;
 import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.function.Supplier;
 
 /**
  * A Promise represent a value that will be get in the future, or an Exception
  * that will be thrown in the future.
  * 
+ * Promise is also a CompletionStage and a Future, so that it can be mixed with
+ * JDK asynchronous API's.
+ * 
+ * A promise can be cancelled, either directly or through an AbortSignal: it is
+ * rejected with an AbortException (or the abort reason), and the thread running
+ * its resolver, if any, is interrupted. Promises derived by <code>then</code>
+ * share the signal of their parent.
+ * 
  * @see https://www.promisejs.org/implementing/
  * @param <T>
  */
-public class Promise<T> {
+public class Promise<T> implements CompletionStage<T>, Future<T> {
+
+	/**
+	 * System property enabling inline continuations at startup
+	 */
+	public static final String INLINE_CONTINUATIONS_PROPERTY = "promise4j.inlineContinuations";
+
+	private static volatile Executor defaultExecutor = PromiseExecutors.newThreadPerTaskExecutor();
+	private static volatile boolean inlineContinuations = Boolean.getBoolean(INLINE_CONTINUATIONS_PROPERTY);
+
+	@SuppressWarnings("rawtypes")
+	private static final AtomicReferenceFieldUpdater<Promise, Object> STATE = AtomicReferenceFieldUpdater
+			.newUpdater(Promise.class, Object.class, "state");
+	@SuppressWarnings("rawtypes")
+	private static final AtomicReferenceFieldUpdater<Promise, Object> RUNNER = AtomicReferenceFieldUpdater
+			.newUpdater(Promise.class, Object.class, "runner");
+	@SuppressWarnings("rawtypes")
+	private static final AtomicReferenceFieldUpdater<Promise, CompletableFuture> STAGE = AtomicReferenceFieldUpdater
+			.newUpdater(Promise.class, CompletableFuture.class, "stage");
+	@SuppressWarnings("rawtypes")
+	private static final AtomicReferenceFieldUpdater<Promise, Set> WAITERS = AtomicReferenceFieldUpdater
+			.newUpdater(Promise.class, Set.class, "waiters");
+
+	protected final Executor executor;
+	protected final AbortSignal signal;
+	// looked up on first use, as many promises never queue a handler
+	private MicrotaskQueue microtasks;
 
-	protected Status status;
-	protected T value;
-	protected Exception error;
-	protected List<Handler> handlers = new LinkedList<>();
+	/**
+	 * The thread running the resolver function, or <code>INTERRUPTING</code>
+	 * while it is being interrupted by <code>cancel</code>, or null
+	 */
+	private volatile Object runner;
+	private static final Object INTERRUPTING = new Object();
 
 	/**
-	 * Create new promise
+	 * The whole promise state, updated only by CAS:
+	 * 
+	 * - <code>null</code> while pending, with no handlers
+	 * 
+	 * - a <code>Handler</code> while pending: the last registered handler, linked
+	 * to the previous ones through <code>Handler.next</code>
+	 * 
+	 * - a <code>Settled</code> once fulfilled or rejected
+	 */
+	private volatile Object state;
+
+	private volatile CompletableFuture<T> stage;
+
+	/**
+	 * Threads parked until this promise is settled, all unparked by a single
+	 * handler. A thread that stops waiting removes itself, so that polling a
+	 * pending promise does not accumulate handlers.
+	 */
+	private volatile Set<Thread> waiters;
+
+	/**
+	 * Final state of a promise
+	 */
+	private static final class Settled {
+		final Status status;
+		final Object value;
+		final Exception error;
+
+		Settled(Status status, Object value, Exception error) {
+			this.status = status;
+			this.value = value;
+			this.error = error;
+		}
+	}
+
+	/**
+	 * Create new promise, running on the default Executor
 	 * 
 	 * @param fn a consumer that takes two argument (resolve, reject) as by
 	 *           specification of Promise
 	 */
 	public Promise(BiConsumer<Consumer<T>, Consumer<Exception>> fn) {
-		status = Status.PENDING;
-
-		Consumer<T> fulfill = (value) -> {
-			Promise.this.value = value;
-			Promise.this.status = Status.FULFILLED;
-			handleHandlers();
-		};
-		Consumer<Exception> reject = (error) -> {
-			this.error = error;
-			this.status = Status.REJECTED;
-			handleHandlers();
-		};
-		Consumer<T> resolve = (value) -> {
-			try {
-				fulfill.accept(value);
-			} catch (Exception e) {
-				reject.accept(e);
-			}
-		};
+		this(defaultExecutor, fn, AbortSignal.current());
+	}
+
+	/**
+	 * Create new promise, running on the default Executor, that is cancelled when
+	 * the given signal is aborted
+	 * 
+	 * @param fn     a consumer that takes two argument (resolve, reject) as by
+	 *               specification of Promise
+	 * @param signal an AbortSignal, or null
+	 */
+	public Promise(BiConsumer<Consumer<T>, Consumer<Exception>> fn, AbortSignal signal) {
+		this(defaultExecutor, fn, signal);
+	}
+
+	/**
+	 * Create new promise, running on the given Executor. Promises derived from
+	 * this one (e.g. by <code>then</code>) will run on the same Executor.
+	 * 
+	 * @param executor the Executor running <code>fn</code> and all handlers
+	 * @param fn       a consumer that takes two argument (resolve, reject) as by
+	 *                 specification of Promise
+	 */
+	public Promise(Executor executor, BiConsumer<Consumer<T>, Consumer<Exception>> fn) {
+		this(executor, fn, AbortSignal.current());
+	}
+
+	/**
+	 * Create new promise, running on the given Executor, that is cancelled when
+	 * the given signal is aborted. Promises derived from this one (e.g. by
+	 * <code>then</code>) will run on the same Executor, and share the same
+	 * signal.
+	 * 
+	 * @param executor the Executor running <code>fn</code> and all handlers
+	 * @param fn       a consumer that takes two argument (resolve, reject) as by
+	 *                 specification of Promise
+	 * @param signal   an AbortSignal, or null
+	 */
+	public Promise(Executor executor, BiConsumer<Consumer<T>, Consumer<Exception>> fn, AbortSignal signal) {
+		this(executor, signal);
+		if (!(state instanceof Settled)) {
+			executor.execute(() -> run(fn));
+		}
+	}
 
-		Thread t = new Thread() {
-			@Override
-			public void run() {
-				doResolve(fn, resolve, reject);
+	/**
+	 * Create new pending promise, that will be settled by
+	 * <code>complete</code> or <code>completeExceptionally</code>
+	 * 
+	 * @param executor the Executor running handlers
+	 */
+	protected Promise(Executor executor) {
+		this(executor, (AbortSignal) null);
+	}
+
+	/**
+	 * Create new pending promise, that will be settled by
+	 * <code>complete</code> or <code>completeExceptionally</code>, or cancelled
+	 * when the given signal is aborted
+	 * 
+	 * @param executor the Executor running handlers
+	 * @param signal   an AbortSignal, or null
+	 */
+	protected Promise(Executor executor, AbortSignal signal) {
+		this.executor = Objects.requireNonNull(executor, "executor");
+		this.signal = signal;
+		if (signal != null) {
+			Runnable listener = () -> cancel(signal.getReason(), true);
+			signal.addAbortListener(listener);
+			awaitHandler(() -> signal.removeAbortListener(listener));
+		}
+	}
+
+	/**
+	 * Run the resolver function in current thread, unless the promise was
+	 * cancelled meanwhile
+	 */
+	private void run(BiConsumer<Consumer<T>, Consumer<Exception>> fn) {
+		if (state instanceof Settled) {
+			return;
+		}
+		Thread thread = Thread.currentThread();
+		runner = thread;
+		AbortSignal previous = AbortSignal.enter(signal);
+		try {
+			doResolve(fn, this::complete, this::completeExceptionally);
+		} finally {
+			AbortSignal.exit(previous);
+			if (!RUNNER.compareAndSet(this, thread, null)) {
+				// cancel() is interrupting us: don't leak the interrupt to the next task
+				// run by this thread
+				while (runner == INTERRUPTING) {
+					Thread.yield();
+				}
+				Thread.interrupted();
+				runner = null;
 			}
-		};
-		t.start();
+		}
 	}
 
-	private Promise() {
+	/**
+	 * Create new promise, running on the given Executor. Shortcut for
+	 * <code>new Promise&lt;&gt;(executor, fn)</code>
+	 * 
+	 * @param executor the Executor running <code>fn</code> and all handlers
+	 * @param fn       a consumer that takes two argument (resolve, reject) as by
+	 *                 specification of Promise
+	 */
+	public static <W> Promise<W> on(Executor executor, BiConsumer<Consumer<W>, Consumer<Exception>> fn) {
+		return new Promise<>(executor, fn);
 	}
 
 	/**
-	 * Create new promise from a CompletableFuture
+	 * Create new promise, running on the given Executor, that is cancelled when
+	 * the given signal is aborted. Shortcut for
+	 * <code>new Promise&lt;&gt;(executor, fn, signal)</code>
+	 * 
+	 * @param executor the Executor running <code>fn</code> and all handlers
+	 * @param fn       a consumer that takes two argument (resolve, reject) as by
+	 *                 specification of Promise
+	 * @param signal   an AbortSignal, or null
+	 */
+	public static <W> Promise<W> on(Executor executor, BiConsumer<Consumer<W>, Consumer<Exception>> fn,
+			AbortSignal signal) {
+		return new Promise<>(executor, fn, signal);
+	}
+
+	/**
+	 * Create new promise, running on the default Executor, that is rejected with
+	 * a TimeoutException if not settled before the given deadline. The deadline
+	 * also applies to promises derived from this one, and to promises and fetch
+	 * requests created by its resolver and handlers; if there is already a
+	 * current deadline, the earliest one applies.
+	 * 
+	 * @param deadline
+	 * @param fn       a consumer that takes two argument (resolve, reject) as by
+	 *                 specification of Promise
+	 */
+	public static <W> Promise<W> withDeadline(Instant deadline, BiConsumer<Consumer<W>, Consumer<Exception>> fn) {
+		AbortSignal current = AbortSignal.current();
+		AbortSignal signal = AbortSignal.deadline(deadline);
+		return new Promise<>(fn, current == null ? signal : AbortSignal.any(current, signal));
+	}
+
+	/**
+	 * Return the Executor used by promises that do not specify one
+	 */
+	public static Executor getDefaultExecutor() {
+		return defaultExecutor;
+	}
+
+	/**
+	 * Set the Executor used by promises that do not specify one. Promises
+	 * already created are not affected.
+	 * 
+	 * @param executor
+	 * @see PromiseExecutors
+	 */
+	public static void setDefaultExecutor(Executor executor) {
+		defaultExecutor = Objects.requireNonNull(executor, "executor");
+	}
+
+	/**
+	 * Create new promise from a Future. If the Future is a CompletionStage (e.g.
+	 * a CompletableFuture), no thread is used while waiting; otherwise, a thread
+	 * of the default Executor waits for <code>future.get()</code>.
 	 * 
 	 * @param future
 	 */
+	@SuppressWarnings("unchecked")
 	public Promise(Future<T> future) {
-		this((resolve, reject) -> {
-			try {
-				resolve(future.get());
-			} catch (InterruptedException | ExecutionException e) {
-				reject(e);
+		this(defaultExecutor);
+		if (future instanceof CompletionStage) {
+			((CompletionStage<T>) future).whenComplete(this::completeWith);
+		} else {
+			executor.execute(() -> {
+				try {
+					complete(future.get());
+				} catch (InterruptedException | ExecutionException e) {
+					completeExceptionally(e);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Return a promise settled as the given CompletionStage, without using any
+	 * thread while waiting.
+	 * 
+	 * @param stage
+	 */
+	public static <W> Promise<W> from(CompletionStage<W> stage) {
+		if (stage instanceof Promise) {
+			return (Promise<W>) stage;
+		}
+		Promise<W> p = new Promise<>(defaultExecutor);
+		stage.whenComplete(p::completeWith);
+		return p;
+	}
+
+	/**
+	 * Settle this promise as a CompletionStage callback would do
+	 */
+	private void completeWith(T value, Throwable error) {
+		if (error == null) {
+			complete(value);
+		} else {
+			completeExceptionally(toException(error));
+		}
+	}
+
+	/**
+	 * Convert a CompletionStage error into a promise error
+	 */
+	static Exception toException(Throwable error) {
+		if (error instanceof CompletionException && error.getCause() != null) {
+			error = error.getCause();
+		}
+		return error instanceof Exception ? (Exception) error : new ExecutionException(error);
+	}
+
+	/**
+	 * True if handlers added to already settled promises are run immediately by
+	 * the calling thread
+	 * 
+	 * @see #setInlineContinuations(boolean)
+	 */
+	public static boolean isInlineContinuations() {
+		return inlineContinuations;
+	}
+
+	/**
+	 * Choose whether handlers added (by <code>done</code>, <code>then</code>,
+	 * ...) to an already settled promise are run immediately by the calling
+	 * thread (and handlers added to a pending promise by the settling thread),
+	 * instead of at next tick on the promise Executor. In this mode,
+	 * <code>Promise.resolve(42).then(f).then(g)</code> runs f and g before
+	 * returning, without any thread switch; nested continuations are run one
+	 * after the other, so that deep chains cannot overflow the stack.
+	 * 
+	 * This breaks the guarantee that handlers never run before <code>done</code>
+	 * returns. The initial value is taken from system property
+	 * <code>promise4j.inlineContinuations</code>.
+	 * 
+	 * @param enabled
+	 */
+	public static void setInlineContinuations(boolean enabled) {
+		inlineContinuations = enabled;
+	}
+
+	/**
+	 * Return the Executor running this promise and its handlers
+	 */
+	public Executor getExecutor() {
+		return executor;
+	}
+
+	/**
+	 * Return the AbortSignal cancelling this promise, if any
+	 */
+	public AbortSignal getSignal() {
+		return signal;
+	}
+
+	/**
+	 * Cancel this promise, if still pending, rejecting it with an AbortException.
+	 * 
+	 * @param mayInterruptIfRunning true if the thread running the resolver
+	 *                              function should be interrupted
+	 * @return false if the promise was already settled
+	 */
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		return cancel(new AbortException(), mayInterruptIfRunning);
+	}
+
+	/**
+	 * Cancel this promise, if still pending, rejecting it with the given reason.
+	 * 
+	 * @param reason
+	 * @param mayInterruptIfRunning true if the thread running the resolver
+	 *                              function should be interrupted
+	 * @return false if the promise was already settled
+	 */
+	protected boolean cancel(Exception reason, boolean mayInterruptIfRunning) {
+		if (!completeExceptionally(reason)) {
+			return false;
+		}
+		if (mayInterruptIfRunning) {
+			Object thread = runner;
+			if (thread instanceof Thread && RUNNER.compareAndSet(this, thread, INTERRUPTING)) {
+				((Thread) thread).interrupt();
+				runner = null;
 			}
-		});
+		}
+		return true;
+	}
+
+	/**
+	 * True if the promise was rejected because of a cancellation
+	 */
+	@Override
+	public boolean isCancelled() {
+		return getError() instanceof CancellationException;
+	}
+
+	/**
+	 * True if the promise is settled
+	 */
+	@Override
+	public boolean isDone() {
+		return state instanceof Settled;
 	}
 
 	/**
 	 * Return promise current status: PENDING/RESOLVED/REJECTED
 	 */
 	public Status getStatus() {
-		return status;
+		Object s = state;
+		return s instanceof Settled ? ((Settled) s).status : Status.PENDING;
 	}
 
 	/**
 	 * Return promise current value (if resolved)
 	 */
+	@SuppressWarnings("unchecked")
 	public T getValue() {
-		return value;
+		Object s = state;
+		return s instanceof Settled ? (T) ((Settled) s).value : null;
 	}
 
 	/**
 	 * Return promise current value (if rejected)
 	 */
 	public Exception getError() {
-		return error;
+		Object s = state;
+		return s instanceof Settled ? ((Settled) s).error : null;
+	}
+
+	/**
+	 * Wait until this promise is settled, then return its value, or throw a
+	 * CompletionException wrapping its error. Like
+	 * <code>CompletableFuture.join()</code>, this is not interruptible.
+	 */
+	@SuppressWarnings("unchecked")
+	public T join() {
+		boolean interrupted = false;
+		for (;;) {
+			try {
+				await(-1);
+				break;
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+		Settled result = (Settled) state;
+		if (result.error instanceof CancellationException) {
+			throw (CancellationException) result.error;
+		} else if (result.status == Status.REJECTED) {
+			throw new CompletionException(result.error);
+		}
+		return (T) result.value;
+	}
+
+	/**
+	 * Wait until this promise is settled, then return its value, or throw an
+	 * ExecutionException wrapping its error.
+	 */
+	public T get() throws InterruptedException, ExecutionException {
+		await(-1);
+		return valueOrThrow();
 	}
 
-	private static final class BooleanHolder {
-		public boolean value;
+	/**
+	 * Wait at most the given time for this promise to be settled, then return its
+	 * value, or throw an ExecutionException wrapping its error.
+	 */
+	public T get(long timeout, TimeUnit unit)
+			throws InterruptedException, ExecutionException, java.util.concurrent.TimeoutException {
+		if (!await(Math.max(0, unit.toNanos(timeout)))) {
+			throw new java.util.concurrent.TimeoutException();
+		}
+		return valueOrThrow();
+	}
+
+	@SuppressWarnings("unchecked")
+	private T valueOrThrow() throws ExecutionException {
+		Settled result = (Settled) state;
+		if (result.error instanceof CancellationException) {
+			throw (CancellationException) result.error;
+		} else if (result.status == Status.REJECTED) {
+			throw new ExecutionException(result.error);
+		}
+		return (T) result.value;
+	}
+
+	/**
+	 * Park current thread until this promise is settled. The settling thread
+	 * unparks it directly, there is no polling.
+	 * 
+	 * @param nanos max time to wait, or a negative value to wait forever
+	 * @return false if timed out
+	 */
+	private boolean await(long nanos) throws InterruptedException {
+		if (state instanceof Settled) {
+			return true;
+		}
+		Thread waiter = Thread.currentThread();
+		Set<Thread> w = waiters();
+		w.add(waiter);
+		try {
+			return parkUntil(() -> state instanceof Settled, nanos);
+		} finally {
+			w.remove(waiter);
+		}
+	}
+
+	/**
+	 * The set of waiting threads, created with its unparking handler on first
+	 * use
+	 */
+	private Set<Thread> waiters() {
+		Set<Thread> w = waiters;
+		if (w == null) {
+			Set<Thread> created = ConcurrentHashMap.newKeySet();
+			if (WAITERS.compareAndSet(this, null, created)) {
+				awaitHandler(() -> {
+					for (Thread thread : created) {
+						LockSupport.unpark(thread);
+					}
+				});
+				return created;
+			}
+			w = waiters;
+		}
+		return w;
+	}
+
+	/**
+	 * Park current thread until the condition is true. Whoever makes it true must
+	 * unpark current thread.
+	 * 
+	 * @param nanos max time to wait, or a negative value to wait forever
+	 * @return false if timed out
+	 */
+	private static boolean parkUntil(BooleanSupplier condition, long nanos) throws InterruptedException {
+		long deadline = System.nanoTime() + nanos;
+		while (!condition.getAsBoolean()) {
+			if (Thread.interrupted()) {
+				throw new InterruptedException();
+			}
+			if (nanos < 0) {
+				LockSupport.park(condition);
+			} else {
+				long remaining = deadline - System.nanoTime();
+				if (remaining <= 0) {
+					return false;
+				}
+				LockSupport.parkNanos(condition, remaining);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Wait until all given promises are settled, either fulfilled or rejected.
+	 */
+	public static void awaitAll(Promise<?>... promises) throws InterruptedException {
+		awaitAll(-1, promises);
+	}
+
+	/**
+	 * Wait at most the given time until all given promises are settled, either
+	 * fulfilled or rejected.
+	 * 
+	 * @return false if timed out
+	 */
+	public static boolean awaitAll(long timeout, TimeUnit unit, Promise<?>... promises)
+			throws InterruptedException {
+		return awaitAll(Math.max(0, unit.toNanos(timeout)), promises);
+	}
+
+	private static boolean awaitAll(long nanos, Promise<?>... promises) throws InterruptedException {
+		Thread waiter = Thread.currentThread();
+		for (Promise<?> promise : promises) {
+			if (!(promise.state instanceof Settled)) {
+				promise.waiters().add(waiter);
+			}
+		}
+		// promises before this index are settled
+		int[] next = { 0 };
+		try {
+			return parkUntil(() -> {
+				while (next[0] < promises.length && promises[next[0]].state instanceof Settled) {
+					next[0]++;
+				}
+				return next[0] == promises.length;
+			}, nanos);
+		} finally {
+			for (Promise<?> promise : promises) {
+				Set<Thread> w = promise.waiters;
+				if (w != null) {
+					w.remove(waiter);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Run given callback on the settling thread, or now if already settled
+	 */
+	private void awaitHandler(Runnable callback) {
+		handle(new Handler((value) -> callback.run(), (error) -> callback.run()));
+	}
+
+	/**
+	 * Number of handlers registered while pending, for tests
+	 */
+	@SuppressWarnings("unchecked")
+	int getHandlerCount() {
+		int count = 0;
+		Object s = state;
+		for (Handler h = s instanceof Settled ? null : (Handler) s; h != null; h = h.next) {
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Fulfill the promise with given value, if still pending
+	 * 
+	 * @return false if the promise was already settled
+	 */
+	protected boolean complete(T value) {
+		return settle(new Settled(Status.FULFILLED, value, null));
+	}
+
+	/**
+	 * Reject the promise with given error, if still pending
+	 * 
+	 * @return false if the promise was already settled
+	 */
+	protected boolean completeExceptionally(Exception error) {
+		return settle(new Settled(Status.REJECTED, null, error));
 	}
 
 	/**
@@ -119,27 +680,19 @@ public class Promise<T> {
 	 */
 	protected static <W> void doResolve(BiConsumer<Consumer<W>, Consumer<Exception>> fn, Consumer<W> onFulfilled,
 			Consumer<Exception> onRejected) {
-		// we use BooleanHolder instead of boolean to avoid error "Local variable
-		// defined in an enclosing scope must be final or effectively final"
-		BooleanHolder done = new BooleanHolder();
-		done.value = false;
+		// resolve and reject may be called concurrently by different threads
+		AtomicBoolean done = new AtomicBoolean(false);
 		try {
 			fn.accept((value) -> {
-				if (done.value)
-					return;
-				done.value = true;
-				onFulfilled.accept(value);
+				if (done.compareAndSet(false, true))
+					onFulfilled.accept(value);
 			}, (error) -> {
-				if (done.value)
-					return;
-				done.value = true;
-				onRejected.accept(error);
+				if (done.compareAndSet(false, true))
+					onRejected.accept(error);
 			});
 		} catch (RuntimeException ex) {
-			if (done.value)
-				return;
-			done.value = true;
-			onRejected.accept(ex);
+			if (done.compareAndSet(false, true))
+				onRejected.accept(ex);
 		}
 	}
 
@@ -154,64 +707,163 @@ public class Promise<T> {
 
 		public Consumer<T> onFulfilled;
 		public Consumer<Exception> onRejected;
+
+		/**
+		 * Previously registered handler, while the promise is pending
+		 */
+		Handler next;
 	}
 
 	/**
 	 * If the promise is already settled, call handler callbacks; otherwise, just
-	 * append handler to promise handlers list.
+	 * push handler on the promise handlers stack. A handler must not be passed
+	 * twice.
 	 * 
 	 * @param handler
 	 */
+	@SuppressWarnings("unchecked")
 	protected void handle(Handler handler) {
-		if (status == Status.PENDING) {
-			handlers.add(handler);
-		} else {
-			if (status == Status.FULFILLED && handler.onFulfilled != null) {
-				handler.onFulfilled.accept(value);
+		for (;;) {
+			Object s = state;
+			if (s instanceof Settled) {
+				call(handler, (Settled) s);
+				return;
 			}
-			if (status == Status.REJECTED && handler.onRejected != null) {
-				handler.onRejected.accept(error);
+			handler.next = (Handler) s;
+			if (STATE.compareAndSet(this, s, handler)) {
+				return;
 			}
 		}
 	}
 
 	/**
-	 * Handle all handlers that were expecting for this promise.
+	 * Settle the promise, if still pending, then call all handlers that were
+	 * expecting for this promise, in registration order.
+	 * 
+	 * @return false if the promise was already settled
 	 */
-	protected void handleHandlers() {
-		for (Promise<T>.Handler handler : handlers) {
-			handle(handler);
+	@SuppressWarnings("unchecked")
+	private boolean settle(Settled result) {
+		Object s;
+		do {
+			s = state;
+			if (s instanceof Settled) {
+				return false;
+			}
+		} while (!STATE.compareAndSet(this, s, result));
+
+		// handlers were pushed on a stack, reverse it
+		Handler head = null;
+		for (Handler h = (Handler) s; h != null;) {
+			Handler next = h.next;
+			h.next = head;
+			head = h;
+			h = next;
 		}
-		handlers.clear();
+		if (head != null) {
+			// handlers may settle other promises in turn: don't recurse
+			Trampoline trampoline = Trampoline.current();
+			if (trampoline.tryEnter()) {
+				callHandlers(head, result);
+				trampoline.drainAndExit();
+			} else {
+				Handler first = head;
+				trampoline.defer(() -> callHandlers(first, result));
+			}
+		}
+		return true;
 	}
 
+	private void callHandlers(Handler head, Settled result) {
+		while (head != null) {
+			Handler next = head.next;
+			head.next = null;
+			try {
+				call(head, result);
+			} catch (RuntimeException ex) {
+				// a failing handler must not prevent the others from running
+				Thread current = Thread.currentThread();
+				current.getUncaughtExceptionHandler().uncaughtException(current, ex);
+			}
+			head = next;
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private void call(Handler handler, Settled result) {
+		if (result.status == Status.FULFILLED && handler.onFulfilled != null) {
+			handler.onFulfilled.accept((T) result.value);
+		}
+		if (result.status == Status.REJECTED && handler.onRejected != null) {
+			handler.onRejected.accept(result.error);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
 	public <W> Promise<W> then(Function<T, W> onFulfilled, Consumer<Exception> onRejected) {
-		Promise<T> self = this;
-		return new Promise<>((resolve, reject) -> {
-			self.done((result) -> {
-				if (onFulfilled != null) {
-					try {
-						resolve.accept(onFulfilled.apply(result));
-					} catch (RuntimeException ex) {
-						reject.accept(ex);
-					}
-				} else {
-					resolve(result);
-				}
-			}, (error) -> {
-				if (onRejected != null) {
-					try {
-						onRejected.accept(error);
-						reject.accept(error);
-					} catch (RuntimeException ex) {
-						AggregateException ex2 = new AggregateException(ex, error);
-						reject.accept(ex2);
-					}
-				} else {
-					reject.accept(error);
+		Promise<W> child = new Promise<>(executor, signal);
+		done((result) -> {
+			if (onFulfilled != null) {
+				AbortSignal previous = AbortSignal.enter(signal);
+				try {
+					child.complete(onFulfilled.apply(result));
+				} catch (RuntimeException ex) {
+					child.completeExceptionally(ex);
+				} finally {
+					AbortSignal.exit(previous);
 				}
-			});
+			} else {
+				child.complete((W) result);
+			}
+		}, (error) -> {
+			rejectChild(child, error, onRejected);
 		});
+		return child;
+	}
+
+	/**
+	 * Propagate an error to a promise derived by <code>then</code>, after calling
+	 * <code>onRejected</code>
+	 */
+	private void rejectChild(Promise<?> child, Exception error, Consumer<Exception> onRejected) {
+		if (onRejected != null) {
+			AbortSignal previous = AbortSignal.enter(signal);
+			try {
+				onRejected.accept(error);
+				child.completeExceptionally(error);
+			} catch (RuntimeException ex) {
+				AggregateException ex2 = new AggregateException(ex, error);
+				child.completeExceptionally(ex2);
+			} finally {
+				AbortSignal.exit(previous);
+			}
+		} else {
+			child.completeExceptionally(error);
+		}
+	}
+
+	/**
+	 * Return a promise settled as this one, or rejected with a TimeoutException if
+	 * this one is not settled within the given time; in that case, this promise
+	 * is cancelled. No thread is used while waiting.
+	 * 
+	 * @param ms
+	 */
+	public Promise<T> timeout(long ms) {
+		Promise<T> child = new Promise<>(executor, signal);
+		Timeout timer = SetTimeout.schedule(() -> {
+			if (child.completeExceptionally(new TimeoutException("Timed out after " + ms + " ms"))) {
+				cancel(true);
+			}
+		}, ms);
+		handle(new Handler((value) -> {
+			timer.cancel();
+			child.complete(value);
+		}, (error) -> {
+			timer.cancel();
+			child.completeExceptionally(error);
+		}));
+		return child;
 	}
 
 	/**
@@ -254,16 +906,20 @@ public class Promise<T> {
 	 * @return
 	 */
 	public <W> Promise<W> thenPromise(Function<T, Promise<W>> onFulfilled, Consumer<Exception> onRejected) {
-		Promise<T> orig = this;
-		return new Promise<>((resolve, reject) -> {
-			orig.then(onFulfilled, onRejected).then((promise) -> {
-				promise.then((w) -> {
-					resolve.accept(w);
-				}, (err) -> {
-					reject.accept(err);
-				});
-			});
+		Promise<W> child = new Promise<>(executor, signal);
+		done((result) -> {
+			AbortSignal previous = AbortSignal.enter(signal);
+			try {
+				onFulfilled.apply(result).done(child::complete, child::completeExceptionally);
+			} catch (RuntimeException ex) {
+				child.completeExceptionally(ex);
+			} finally {
+				AbortSignal.exit(previous);
+			}
+		}, (error) -> {
+			rejectChild(child, error, onRejected);
 		});
+		return child;
 	}
 
 	/**
@@ -326,37 +982,263 @@ public class Promise<T> {
 	 * 
 	 * - it is called regardless of whether the promise is resolved before or after
 	 * we call .done
+	 * 
+	 * Handlers are run through the microtask queue of this promise's Executor, so
+	 * they should be short and never block. If inline continuations are enabled,
+	 * the handler is run by the calling thread if the promise is already settled,
+	 * by the settling thread otherwise.
+	 * 
+	 * @see #setInlineContinuations(boolean)
 	 */
 	public void done(Consumer<T> onFulfilled, Consumer<Exception> onRejected) {
 		Handler handler = new Handler(onFulfilled, onRejected);
-		setTimeout(() -> {
-			this.handle(handler);
-		}, 0);
+		if (inlineContinuations) {
+			Trampoline.execute(() -> this.handle(handler));
+		} else {
+			MicrotaskQueue queue = microtasks;
+			if (queue == null) {
+				// a benign race: the queue of an Executor is unique while in use
+				queue = MicrotaskQueue.of(executor);
+				microtasks = queue;
+			}
+			queue.enqueue(() -> {
+				this.handle(handler);
+			});
+		}
 	}
 
 	/**
-	 * Convert to CompletableFuture
+	 * Convert to CompletableFuture. The result is completed directly by the
+	 * thread settling this promise, no thread is used while waiting.
 	 */
+	@Override
 	public CompletableFuture<T> toCompletableFuture() {
 		CompletableFuture<T> c = new CompletableFuture<>();
-		Executors.newCachedThreadPool().submit(() -> {
-			then((w) -> {
-				c.complete(w);
-			}, (error) -> {
-				c.completeExceptionally(error);
-			});
+		handle(new Handler(c::complete, c::completeExceptionally));
+		return c;
+	}
 
-		});
+	/**
+	 * The CompletableFuture backing CompletionStage methods. Created at first
+	 * use, and never exposed, so that nobody can complete it.
+	 */
+	@SuppressWarnings("unchecked")
+	private CompletableFuture<T> stage() {
+		CompletableFuture<T> c = stage;
+		if (c == null) {
+			c = new CompletableFuture<>();
+			if (STAGE.compareAndSet(this, null, c)) {
+				handle(new Handler(c::complete, c::completeExceptionally));
+			} else {
+				c = stage;
+			}
+		}
 		return c;
 	}
 
+	// CompletionStage methods. Async variants without an Executor run on this
+	// promise's Executor.
+
+	@Override
+	public <U> CompletionStage<U> thenApply(Function<? super T, ? extends U> fn) {
+		return stage().thenApply(fn);
+	}
+
+	@Override
+	public <U> CompletionStage<U> thenApplyAsync(Function<? super T, ? extends U> fn) {
+		return stage().thenApplyAsync(fn, executor);
+	}
+
+	@Override
+	public <U> CompletionStage<U> thenApplyAsync(Function<? super T, ? extends U> fn, Executor executor) {
+		return stage().thenApplyAsync(fn, executor);
+	}
+
+	@Override
+	public CompletionStage<Void> thenAccept(Consumer<? super T> action) {
+		return stage().thenAccept(action);
+	}
+
+	@Override
+	public CompletionStage<Void> thenAcceptAsync(Consumer<? super T> action) {
+		return stage().thenAcceptAsync(action, executor);
+	}
+
+	@Override
+	public CompletionStage<Void> thenAcceptAsync(Consumer<? super T> action, Executor executor) {
+		return stage().thenAcceptAsync(action, executor);
+	}
+
+	@Override
+	public CompletionStage<Void> thenRun(Runnable action) {
+		return stage().thenRun(action);
+	}
+
+	@Override
+	public CompletionStage<Void> thenRunAsync(Runnable action) {
+		return stage().thenRunAsync(action, executor);
+	}
+
+	@Override
+	public CompletionStage<Void> thenRunAsync(Runnable action, Executor executor) {
+		return stage().thenRunAsync(action, executor);
+	}
+
+	@Override
+	public <U, V> CompletionStage<V> thenCombine(CompletionStage<? extends U> other,
+			BiFunction<? super T, ? super U, ? extends V> fn) {
+		return stage().thenCombine(other, fn);
+	}
+
+	@Override
+	public <U, V> CompletionStage<V> thenCombineAsync(CompletionStage<? extends U> other,
+			BiFunction<? super T, ? super U, ? extends V> fn) {
+		return stage().thenCombineAsync(other, fn, executor);
+	}
+
+	@Override
+	public <U, V> CompletionStage<V> thenCombineAsync(CompletionStage<? extends U> other,
+			BiFunction<? super T, ? super U, ? extends V> fn, Executor executor) {
+		return stage().thenCombineAsync(other, fn, executor);
+	}
+
+	@Override
+	public <U> CompletionStage<Void> thenAcceptBoth(CompletionStage<? extends U> other,
+			BiConsumer<? super T, ? super U> action) {
+		return stage().thenAcceptBoth(other, action);
+	}
+
+	@Override
+	public <U> CompletionStage<Void> thenAcceptBothAsync(CompletionStage<? extends U> other,
+			BiConsumer<? super T, ? super U> action) {
+		return stage().thenAcceptBothAsync(other, action, executor);
+	}
+
+	@Override
+	public <U> CompletionStage<Void> thenAcceptBothAsync(CompletionStage<? extends U> other,
+			BiConsumer<? super T, ? super U> action, Executor executor) {
+		return stage().thenAcceptBothAsync(other, action, executor);
+	}
+
+	@Override
+	public CompletionStage<Void> runAfterBoth(CompletionStage<?> other, Runnable action) {
+		return stage().runAfterBoth(other, action);
+	}
+
+	@Override
+	public CompletionStage<Void> runAfterBothAsync(CompletionStage<?> other, Runnable action) {
+		return stage().runAfterBothAsync(other, action, executor);
+	}
+
+	@Override
+	public CompletionStage<Void> runAfterBothAsync(CompletionStage<?> other, Runnable action, Executor executor) {
+		return stage().runAfterBothAsync(other, action, executor);
+	}
+
+	@Override
+	public <U> CompletionStage<U> applyToEither(CompletionStage<? extends T> other, Function<? super T, U> fn) {
+		return stage().applyToEither(other, fn);
+	}
+
+	@Override
+	public <U> CompletionStage<U> applyToEitherAsync(CompletionStage<? extends T> other, Function<? super T, U> fn) {
+		return stage().applyToEitherAsync(other, fn, executor);
+	}
+
+	@Override
+	public <U> CompletionStage<U> applyToEitherAsync(CompletionStage<? extends T> other, Function<? super T, U> fn,
+			Executor executor) {
+		return stage().applyToEitherAsync(other, fn, executor);
+	}
+
+	@Override
+	public CompletionStage<Void> acceptEither(CompletionStage<? extends T> other, Consumer<? super T> action) {
+		return stage().acceptEither(other, action);
+	}
+
+	@Override
+	public CompletionStage<Void> acceptEitherAsync(CompletionStage<? extends T> other, Consumer<? super T> action) {
+		return stage().acceptEitherAsync(other, action, executor);
+	}
+
+	@Override
+	public CompletionStage<Void> acceptEitherAsync(CompletionStage<? extends T> other, Consumer<? super T> action,
+			Executor executor) {
+		return stage().acceptEitherAsync(other, action, executor);
+	}
+
+	@Override
+	public CompletionStage<Void> runAfterEither(CompletionStage<?> other, Runnable action) {
+		return stage().runAfterEither(other, action);
+	}
+
+	@Override
+	public CompletionStage<Void> runAfterEitherAsync(CompletionStage<?> other, Runnable action) {
+		return stage().runAfterEitherAsync(other, action, executor);
+	}
+
+	@Override
+	public CompletionStage<Void> runAfterEitherAsync(CompletionStage<?> other, Runnable action, Executor executor) {
+		return stage().runAfterEitherAsync(other, action, executor);
+	}
+
+	@Override
+	public <U> CompletionStage<U> thenCompose(Function<? super T, ? extends CompletionStage<U>> fn) {
+		return stage().thenCompose(fn);
+	}
+
+	@Override
+	public <U> CompletionStage<U> thenComposeAsync(Function<? super T, ? extends CompletionStage<U>> fn) {
+		return stage().thenComposeAsync(fn, executor);
+	}
+
+	@Override
+	public <U> CompletionStage<U> thenComposeAsync(Function<? super T, ? extends CompletionStage<U>> fn,
+			Executor executor) {
+		return stage().thenComposeAsync(fn, executor);
+	}
+
+	@Override
+	public CompletionStage<T> exceptionally(Function<Throwable, ? extends T> fn) {
+		return stage().exceptionally(fn);
+	}
+
+	@Override
+	public CompletionStage<T> whenComplete(BiConsumer<? super T, ? super Throwable> action) {
+		return stage().whenComplete(action);
+	}
+
+	@Override
+	public CompletionStage<T> whenCompleteAsync(BiConsumer<? super T, ? super Throwable> action) {
+		return stage().whenCompleteAsync(action, executor);
+	}
+
+	@Override
+	public CompletionStage<T> whenCompleteAsync(BiConsumer<? super T, ? super Throwable> action, Executor executor) {
+		return stage().whenCompleteAsync(action, executor);
+	}
+
+	@Override
+	public <U> CompletionStage<U> handle(BiFunction<? super T, Throwable, ? extends U> fn) {
+		return stage().handle(fn);
+	}
+
+	@Override
+	public <U> CompletionStage<U> handleAsync(BiFunction<? super T, Throwable, ? extends U> fn) {
+		return stage().handleAsync(fn, executor);
+	}
+
+	@Override
+	public <U> CompletionStage<U> handleAsync(BiFunction<? super T, Throwable, ? extends U> fn, Executor executor) {
+		return stage().handleAsync(fn, executor);
+	}
+
 	/**
 	 * Returns a Promise object that is resolved with a given value
 	 */
 	public static <W> Promise<W> resolve(W value) {
-		Promise<W> p = new Promise<>();
-		p.status = Status.FULFILLED;
-		p.value = value;
+		Promise<W> p = new Promise<>(defaultExecutor);
+		p.state = new Settled(Status.FULFILLED, value, null);
 		return p;
 	}
 
@@ -364,216 +1246,221 @@ public class Promise<T> {
 	 * Returns a Promise object that is rejected with a given error
 	 */
 	public static <W> Promise<W> reject(Exception error) {
-		Promise<W> p = new Promise<>();
-		p.status = Status.REJECTED;
-		p.error = error;
+		Promise<W> p = new Promise<>(defaultExecutor);
+		p.state = new Settled(Status.REJECTED, null, error);
 		return p;
 	}
 
-	private static final class ResultHolder<W> {
-		public Exception error;
-		public boolean rejected;
-		public W result;
-	}
-
 	/**
-	 * Resolve when all given promises do resolve
+	 * Resolve when all given promises do resolve, with their values in the same
+	 * order as the given promises. Reject as soon as one of them is rejected.
 	 */
 	@SafeVarargs
 	public static <W> Promise<List<W>> all(Promise<W>... promises) {
+		Promise<List<W>> result = new Promise<>(defaultExecutor);
+		if (promises.length == 0) {
+			result.complete(new ArrayList<>());
+			return result;
+		}
 
-		return new Promise<>((resolve, reject) -> {
-
-			// we expect for promises.length promises to finish
-			final CountDownLatch latch = new CountDownLatch(promises.length);
-			List<W> resultList = new ArrayList<>(promises.length);
-
-			// we use a holder to avoid error "Local variable defined in
-			// an enclosing scope must be final or effectively final"
-			ResultHolder<?> resultHolder = new ResultHolder<>();
-			resultHolder.rejected = false;
-
-			for (Promise<W> promise : promises) {
-				promise.then((result) -> {
-					// one promise ended: add result to list
-
-					resultList.add(result);
-					latch.countDown();
-				}, (error) -> {
-					// one promise failed: "all" promise failed, too
-
-					resultHolder.rejected = true;
-					resultHolder.error = error;
-
-					// Countdown latches to cancel to move forward even if there is something else
-					// thread running
-					for (int i = 0; i < promises.length; i++) {
-						latch.countDown();
-					}
-				});
-			}
-
-			// wait that latch goes down to 0
-			try {
-				latch.await();
-			} catch (InterruptedException e) {
-				reject.accept(e);
-				return;
-			}
-
-			if (resultHolder.rejected) {
-				reject.accept(resultHolder.error);
-			} else {
-				resolve.accept(resultList);
-			}
-		});
+		// each slot is written by one handler only; the atomic countdown makes all
+		// writes visible to the handler that completes the result
+		Object[] values = new Object[promises.length];
+		AtomicInteger remaining = new AtomicInteger(promises.length);
+
+		for (int i = 0; i < promises.length; i++) {
+			final int index = i;
+			promises[i].done((value) -> {
+				values[index] = value;
+				if (remaining.decrementAndGet() == 0) {
+					result.complete(toList(values));
+				}
+			}, result::completeExceptionally);
+		}
+		return result;
 	}
 
 	/**
-	 * Resolve when all given promises finish, either resolved or rejected
+	 * Resolve when all given promises finish, either resolved or rejected, with
+	 * their values or errors in the same order as the given promises.
 	 */
 	@SafeVarargs
 	public static <W> Promise<List<Object>> allSettled(Promise<W>... promises) {
+		Promise<List<Object>> result = new Promise<>(defaultExecutor);
+		if (promises.length == 0) {
+			result.complete(new ArrayList<>());
+			return result;
+		}
 
-		return new Promise<>((resolve, reject) -> {
-
-			// we expect for promises.length promises to finish
-			final CountDownLatch latch = new CountDownLatch(promises.length);
-			List<Object> resultList = new ArrayList<>(promises.length);
-
-			for (Promise<W> promise : promises) {
-				promise.then((result) -> {
-					resultList.add(result);
-					latch.countDown();
-				}, (error) -> {
-					resultList.add(error);
-					latch.countDown();
-				});
-			}
-
-			// wait that latch goes down to 0
-			try {
-				latch.await();
-			} catch (InterruptedException e) {
-				reject.accept(e);
-				return;
-			}
+		Object[] values = new Object[promises.length];
+		AtomicInteger remaining = new AtomicInteger(promises.length);
 
-			resolve.accept(resultList);
-		});
+		for (int i = 0; i < promises.length; i++) {
+			final int index = i;
+			promises[i].done((value) -> {
+				values[index] = value;
+				if (remaining.decrementAndGet() == 0) {
+					result.complete(toList(values));
+				}
+			}, (error) -> {
+				values[index] = error;
+				if (remaining.decrementAndGet() == 0) {
+					result.complete(toList(values));
+				}
+			});
+		}
+		return result;
 	}
 
 	/**
 	 * 
 	 * It returns a single promise that fulfills as soon as any of the promises in
-	 * the iterable fulfills, with the value of the fulfilled promise.
+	 * the iterable fulfills, with the value of the fulfilled promise. If all of
+	 * them are rejected, it is rejected with an AggregateException. The other
+	 * promises are cancelled, as their result is not needed anymore.
 	 */
 	@SafeVarargs
 	public static <W> Promise<W> any(Promise<W>... promises) {
+		Promise<W> result = new Promise<>(defaultExecutor);
+		if (promises.length == 0) {
+			result.completeExceptionally(new AggregateException());
+			return result;
+		}
 
-		return new Promise<>((resolve, reject) -> {
-
-			// we expect for promises.length promises to finish
-			final CountDownLatch latch = new CountDownLatch(promises.length);
-			List<Exception> errorList = new ArrayList<>(promises.length);
-
-			// we use a holder to avoid error "Local variable defined in
-			// an enclosing scope must be final or effectively final"
-			ResultHolder<W> resultHolder = new ResultHolder<>();
-			resultHolder.rejected = true;
-
-			for (Promise<W> promise : promises) {
-				promise.then((result) -> {
-					// one promise resolved
-					resultHolder.result = result;
-					resultHolder.rejected = false;
-
-					// Countdown latches to cancel to move forward even if there is something else
-					// thread running
-					for (int i = 0; i < promises.length; i++) {
-						latch.countDown();
-					}
-					;
-				}, (error) -> {
-					// one promise failed
-					errorList.add(error);
-					latch.countDown();
-				});
-			}
-
-			// wait that latch goes down to 0
-			try {
-				latch.await();
-			} catch (InterruptedException e) {
-				reject.accept(e);
-				return;
-			}
-
-			if (resultHolder.rejected) {
-				reject.accept(new AggregateException(errorList));
-			} else {
-				resolve.accept(resultHolder.result);
-			}
-		});
+		Exception[] errors = new Exception[promises.length];
+		AtomicInteger remaining = new AtomicInteger(promises.length);
+
+		Promise<?>[] others = new Promise<?>[promises.length];
+		for (int i = 0; i < promises.length; i++) {
+			final int index = i;
+			others[i] = promises[i];
+			promises[i].done(result::complete, (error) -> {
+				errors[index] = error;
+				if (remaining.decrementAndGet() == 0) {
+					result.completeExceptionally(new AggregateException(errors));
+				}
+			});
+		}
+		result.awaitHandler(() -> cancelAll(others));
+		return result;
 	}
 
 	/**
 	 * A promise that fulfills or rejects as soon as one of the promises in an
 	 * iterable fulfills or rejects, with the value or reason from that promise.
+	 * The other promises are cancelled, as their result is not needed anymore.
 	 */
 	@SafeVarargs
 	public static <W> Promise<Object> race(Promise<W>... promises) {
+		Promise<Object> result = new Promise<>(defaultExecutor);
+		if (promises.length == 0) {
+			result.complete(null);
+			return result;
+		}
 
-		return new Promise<>((resolve, reject) -> {
-
-			// we expect for promises.length promises to finish
-			final CountDownLatch latch = new CountDownLatch(promises.length);
-
-			// we use a holder to avoid error "Local variable defined in
-			// an enclosing scope must be final or effectively final"
-			ResultHolder<W> resultHolder = new ResultHolder<>();
-			resultHolder.rejected = false;
-
-			for (Promise<W> promise : promises) {
-				promise.then((result) -> {
-					// one promise ended
-
-					resultHolder.rejected = false;
-					resultHolder.result = result;
+		Promise<?>[] others = new Promise<?>[promises.length];
+		for (int i = 0; i < promises.length; i++) {
+			others[i] = promises[i];
+			promises[i].done(result::complete, result::completeExceptionally);
+		}
+		result.awaitHandler(() -> cancelAll(others));
+		return result;
+	}
 
-					// Countdown latches to cancel to move forward even if there is something else
-					// thread running
-					for (int i = 0; i < promises.length; i++) {
-						latch.countDown();
-					}
-					;
-				}, (error) -> {
-					// one promise failed
+	/**
+	 * Call <code>supplier</code> until the promise it returns is fulfilled, as
+	 * allowed by the given policy. Attempts are separated by growing, randomized
+	 * delays, scheduled on the shared timer, so no thread is used while waiting.
+	 * The returned promise is rejected with the last error when no more retry is
+	 * allowed. Cancelling it, or aborting the current signal, stops retrying and
+	 * cancels the ongoing attempt.
+	 * 
+	 * @param supplier creates a new attempt each time it is called
+	 * @param policy
+	 */
+	public static <W> Promise<W> retry(Supplier<Promise<W>> supplier, RetryPolicy policy) {
+		Objects.requireNonNull(supplier, "supplier");
+		Objects.requireNonNull(policy, "policy");
+		Promise<W> result = new Promise<>(defaultExecutor, AbortSignal.current());
+		AtomicReference<Promise<W>> attempt = new AtomicReference<>();
+		AtomicReference<Timeout> timer = new AtomicReference<>();
+		result.awaitHandler(() -> {
+			Timeout t = timer.get();
+			if (t != null) {
+				t.cancel();
+			}
+			Promise<W> a = attempt.get();
+			if (a != null) {
+				a.cancel(true);
+			}
+		});
+		retryAttempt(supplier, policy, result, attempt, timer, 1, 0);
+		return result;
+	}
 
-					resultHolder.rejected = true;
-					resultHolder.error = error;
+	private static <W> void retryAttempt(Supplier<Promise<W>> supplier, RetryPolicy policy, Promise<W> result,
+			AtomicReference<Promise<W>> attempt, AtomicReference<Timeout> timer, int attemptNumber,
+			long previousDelay) {
+		if (result.getStatus() != Status.PENDING) {
+			return;
+		}
+		Promise<W> current;
+		AbortSignal previous = AbortSignal.enter(result.signal);
+		try {
+			current = supplier.get();
+		} catch (RuntimeException e) {
+			current = reject(e);
+		} finally {
+			AbortSignal.exit(previous);
+		}
+		if (current == null) {
+			current = reject(new NullPointerException("supplier returned null"));
+		}
+		attempt.set(current);
+		if (result.getStatus() != Status.PENDING) {
+			// cancelled while the supplier was running
+			current.cancel(true);
+			return;
+		}
 
-					// Countdown latches to cancel to move forward even if there is something else
-					// thread running
-					for (int i = 0; i < promises.length; i++) {
-						latch.countDown();
-					}
-				});
+		RetryBudget budget = policy.getBudget();
+		current.done((value) -> {
+			if (budget != null) {
+				budget.onSuccess();
 			}
-
-			// wait that latch goes down to 0
-			try {
-				latch.await();
-			} catch (InterruptedException e) {
-				reject.accept(e);
+			result.complete(value);
+		}, (error) -> {
+			boolean allowed = budget == null || budget.onFailure();
+			if (attemptNumber >= policy.getMaxAttempts() || !allowed || result.getStatus() != Status.PENDING
+					|| (result.signal != null && result.signal.isAborted()) || !policy.getRetryOn().test(error)) {
+				result.completeExceptionally(error);
 				return;
 			}
-
-			if (resultHolder.rejected) {
-				reject.accept(resultHolder.error);
-			} else {
-				resolve.accept(resultHolder.result);
+			long delay = policy.nextDelay(attemptNumber - 1, previousDelay);
+			timer.set(SetTimeout.schedule(
+					() -> retryAttempt(supplier, policy, result, attempt, timer, attemptNumber + 1, delay), delay));
+			if (result.getStatus() != Status.PENDING) {
+				// cancelled while scheduling
+				timer.get().cancel();
 			}
 		});
 	}
+
+	/**
+	 * Cancel all promises that are still pending
+	 */
+	private static void cancelAll(Promise<?>[] promises) {
+		for (Promise<?> promise : promises) {
+			promise.cancel(true);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <W> List<W> toList(Object[] values) {
+		List<W> list = new ArrayList<>(values.length);
+		for (Object value : values) {
+			list.add((W) value);
+		}
+		return list;
+	}
 }
@@ -0,0 +1,135 @@
+package com.github.promise;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Factory methods for the <code>Executor</code>'s that can run promises.
+ *
+ * @see Promise#setDefaultExecutor(Executor)
+ * @see Promise#on(Executor, java.util.function.BiConsumer)
+ */
+public final class PromiseExecutors {
+
+	/**
+	 * System property enabling virtual threads at startup, when supported
+	 */
+	public static final String VIRTUAL_THREADS_PROPERTY = "promise4j.virtualThreads";
+
+	private static final AtomicInteger poolNumber = new AtomicInteger(1);
+
+	private static final ThreadFactory platformThreadFactory = (runnable) -> new Thread(runnable);
+	private static final ThreadFactory virtualThreadFactory = loadVirtualThreadFactory();
+	private static volatile boolean virtualThreads = virtualThreadFactory != null
+			&& Boolean.getBoolean(VIRTUAL_THREADS_PROPERTY);
+
+	private PromiseExecutors() {
+	}
+
+	/**
+	 * Load the Java 21+ version of the factory from the multi-release jar, if we
+	 * are running on a JVM that can see it.
+	 */
+	private static ThreadFactory loadVirtualThreadFactory() {
+		try {
+			return (ThreadFactory) Class.forName("com.github.promise.VirtualThreadFactory").getDeclaredConstructor()
+					.newInstance();
+		} catch (ReflectiveOperationException | LinkageError e) {
+			return null;
+		}
+	}
+
+	/**
+	 * True if this JVM supports virtual threads (Java 21+)
+	 */
+	public static boolean isVirtualThreadsSupported() {
+		return virtualThreadFactory != null;
+	}
+
+	/**
+	 * True if new threads created by promise4j are virtual threads
+	 */
+	public static boolean isVirtualThreads() {
+		return virtualThreads;
+	}
+
+	/**
+	 * Choose whether the threads created by promise4j (thread-per-task executors
+	 * and <code>SetTimeout</code>) are virtual threads or platform threads. The
+	 * initial value is taken from system property
+	 * <code>promise4j.virtualThreads</code>.
+	 * 
+	 * @param enabled
+	 * @throws UnsupportedOperationException if enabling virtual threads on a JVM
+	 *                                       older than Java 21
+	 */
+	public static void setVirtualThreads(boolean enabled) {
+		if (enabled && !isVirtualThreadsSupported()) {
+			throw new UnsupportedOperationException("Virtual threads require Java 21 or later");
+		}
+		virtualThreads = enabled;
+	}
+
+	/**
+	 * Create a new (not started) Thread, either virtual or platform according to
+	 * current settings.
+	 * 
+	 * @param runnable
+	 */
+	public static Thread newThread(Runnable runnable) {
+		return (virtualThreads ? virtualThreadFactory : platformThreadFactory).newThread(runnable);
+	}
+
+	/**
+	 * An Executor that runs each task in a new Thread. This is the historical
+	 * behaviour of promise4j, and the default one. Threads are virtual or platform
+	 * according to {@link #setVirtualThreads(boolean)} at the time each task is
+	 * submitted.
+	 */
+	public static Executor newThreadPerTaskExecutor() {
+		return (runnable) -> newThread(runnable).start();
+	}
+
+	/**
+	 * An Executor that runs each task in a new virtual Thread, regardless of
+	 * {@link #setVirtualThreads(boolean)}.
+	 * 
+	 * @throws UnsupportedOperationException on JVM's older than Java 21
+	 */
+	public static Executor newVirtualThreadPerTaskExecutor() {
+		if (!isVirtualThreadsSupported()) {
+			throw new UnsupportedOperationException("Virtual threads require Java 21 or later");
+		}
+		return (runnable) -> virtualThreadFactory.newThread(runnable).start();
+	}
+
+	/**
+	 * A pool with a fixed number of daemon threads. The returned object can be
+	 * used to monitor pool usage (active count, queue size, ...) and must be
+	 * shutdown by the caller when no more needed.
+	 *
+	 * @param nThreads number of threads in the pool
+	 */
+	public static ThreadPoolExecutor newFixedThreadPool(int nThreads) {
+		return new ThreadPoolExecutor(nThreads, nThreads, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+				newDaemonThreadFactory("promise4j-pool-" + poolNumber.getAndIncrement()));
+	}
+
+	/**
+	 * A ThreadFactory creating daemon threads called <code>prefix-N</code>
+	 *
+	 * @param prefix
+	 */
+	public static ThreadFactory newDaemonThreadFactory(String prefix) {
+		AtomicInteger threadNumber = new AtomicInteger(1);
+		return (runnable) -> {
+			Thread t = new Thread(runnable, prefix + "-" + threadNumber.getAndIncrement());
+			t.setDaemon(true);
+			return t;
+		};
+	}
+}
@@ -0,0 +1,58 @@
+package com.github.promise;
+
+/**
+ * A token bucket limiting retries when most attempts are failing, so that
+ * clients do not overload a struggling server with a retry storm.
+ * 
+ * Each failed attempt withdraws one token, each successful attempt deposits
+ * <code>tokenRatio</code> tokens; retries are allowed only while the bucket is
+ * more than half full. A budget is meant to be shared by all the calls towards
+ * the same service.
+ * 
+ * @see https://github.com/grpc/proposal/blob/master/A6-client-retries.md
+ */
+public class RetryBudget {
+
+	private final double maxTokens;
+	private final double tokenRatio;
+
+	// guarded by this
+	private double tokens;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param maxTokens  size of the bucket, e.g. 10
+	 * @param tokenRatio tokens deposited by each success, e.g. 0.1
+	 */
+	public RetryBudget(double maxTokens, double tokenRatio) {
+		if (maxTokens <= 0 || tokenRatio <= 0) {
+			throw new IllegalArgumentException("maxTokens and tokenRatio must be positive");
+		}
+		this.maxTokens = maxTokens;
+		this.tokenRatio = tokenRatio;
+		this.tokens = maxTokens;
+	}
+
+	/**
+	 * Record a successful attempt
+	 */
+	public synchronized void onSuccess() {
+		tokens = Math.min(maxTokens, tokens + tokenRatio);
+	}
+
+	/**
+	 * Record a failed attempt, and tell whether it may be retried
+	 */
+	public synchronized boolean onFailure() {
+		tokens = Math.max(0, tokens - 1);
+		return tokens > maxTokens / 2;
+	}
+
+	/**
+	 * Current number of tokens
+	 */
+	public synchronized double getTokens() {
+		return tokens;
+	}
+}
@@ -0,0 +1,148 @@
+package com.github.promise;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Predicate;
+
+/**
+ * How {@link Promise#retry(java.util.function.Supplier, RetryPolicy)} retries
+ * a failing operation: how many times, which errors, and how long to wait
+ * between attempts.
+ * 
+ * Delays grow exponentially from <code>baseDelayMs</code> up to
+ * <code>maxDelayMs</code>, and are randomized according to the
+ * <code>Jitter</code>, so that many clients failing together do not retry
+ * together.
+ * 
+ * @see https://aws.amazon.com/blogs/architecture/exponential-backoff-and-jitter/
+ */
+public class RetryPolicy {
+
+	public enum Jitter {
+		/**
+		 * Exactly <code>min(maxDelay, baseDelay * 2^attempt)</code>
+		 */
+		NONE,
+		/**
+		 * A random delay between 0 and <code>min(maxDelay, baseDelay *
+		 * 2^attempt)</code>
+		 */
+		FULL,
+		/**
+		 * A random delay between <code>baseDelay</code> and 3 times the previous
+		 * delay, capped to <code>maxDelay</code>
+		 */
+		DECORRELATED
+	}
+
+	private int maxAttempts = 3;
+	private long baseDelayMs = 100;
+	private long maxDelayMs = 10000;
+	private Jitter jitter = Jitter.FULL;
+	private Predicate<Exception> retryOn = (error) -> !(error instanceof AbortException);
+	private RetryBudget budget;
+
+	public RetryPolicy() {
+	}
+
+	/**
+	 * Constructor
+	 * 
+	 * @param maxAttempts total number of attempts, including the first one
+	 * @param baseDelayMs delay before first retry
+	 * @param maxDelayMs  max delay between two attempts
+	 */
+	public RetryPolicy(int maxAttempts, long baseDelayMs, long maxDelayMs) {
+		setMaxAttempts(maxAttempts);
+		setBaseDelayMs(baseDelayMs);
+		setMaxDelayMs(maxDelayMs);
+	}
+
+	public int getMaxAttempts() {
+		return maxAttempts;
+	}
+
+	public void setMaxAttempts(int maxAttempts) {
+		if (maxAttempts < 1) {
+			throw new IllegalArgumentException("maxAttempts must be at least 1: " + maxAttempts);
+		}
+		this.maxAttempts = maxAttempts;
+	}
+
+	public long getBaseDelayMs() {
+		return baseDelayMs;
+	}
+
+	public void setBaseDelayMs(long baseDelayMs) {
+		this.baseDelayMs = Math.max(0, baseDelayMs);
+	}
+
+	public long getMaxDelayMs() {
+		return maxDelayMs;
+	}
+
+	public void setMaxDelayMs(long maxDelayMs) {
+		this.maxDelayMs = Math.max(0, maxDelayMs);
+	}
+
+	public Jitter getJitter() {
+		return jitter;
+	}
+
+	public void setJitter(Jitter jitter) {
+		this.jitter = jitter;
+	}
+
+	public Predicate<Exception> getRetryOn() {
+		return retryOn;
+	}
+
+	/**
+	 * Set which errors are worth a retry. By default, all errors but
+	 * cancellations.
+	 * 
+	 * @param retryOn
+	 */
+	public void setRetryOn(Predicate<Exception> retryOn) {
+		this.retryOn = retryOn;
+	}
+
+	public RetryBudget getBudget() {
+		return budget;
+	}
+
+	/**
+	 * Set a budget shared with other operations, or null for no budget
+	 * 
+	 * @param budget
+	 */
+	public void setBudget(RetryBudget budget) {
+		this.budget = budget;
+	}
+
+	/**
+	 * Compute the delay before next attempt
+	 * 
+	 * @param retry         number of retries done so far (0 before first retry)
+	 * @param previousDelay delay before previous retry, or 0
+	 */
+	long nextDelay(int retry, long previousDelay) {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		switch (jitter) {
+		case DECORRELATED:
+			long upper = Math.max(baseDelayMs, Math.min(maxDelayMs, previousDelay * 3));
+			return Math.min(maxDelayMs, baseDelayMs + (long) (random.nextDouble() * (upper - baseDelayMs)));
+		case FULL:
+			return (long) (random.nextDouble() * exponential(retry));
+		default:
+			return exponential(retry);
+		}
+	}
+
+	private long exponential(int retry) {
+		if (retry >= 62 || baseDelayMs << retry >>> retry != baseDelayMs) {
+			// overflow
+			return maxDelayMs;
+		}
+		return Math.min(maxDelayMs, baseDelayMs << retry);
+	}
+}
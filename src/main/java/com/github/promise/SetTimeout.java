@@ -1,33 +1,131 @@
 package com.github.promise;
 
+import java.util.concurrent.TimeUnit;
+
 /**
- * Imlements a single static method <code>setTimeout</code>
+ * Imlements static methods <code>setTimeout</code> and
+ * <code>clearTimeout</code>.
+ * 
+ * <code>setTimeout</code> uses a whole Thread for each call, while
+ * <code>schedule</code> uses a shared {@link HashedWheelTimer}.
  */
 public class SetTimeout {
 
+	/**
+	 * System property with the resolution of the default timer, in milliseconds
+	 */
+	public static final String TICK_PROPERTY = "promise4j.timer.tickMs";
+
+	private static volatile HashedWheelTimer timer;
+
 	private SetTimeout() {
 	}
 
+	/**
+	 * Return the shared timer, creating it if necessary. Its resolution is taken
+	 * from system property <code>promise4j.timer.tickMs</code> (default 10).
+	 */
+	public static HashedWheelTimer getTimer() {
+		HashedWheelTimer t = timer;
+		if (t == null) {
+			synchronized (SetTimeout.class) {
+				t = timer;
+				if (t == null) {
+					t = new HashedWheelTimer(Long.getLong(TICK_PROPERTY, 10L), TimeUnit.MILLISECONDS, 512, null);
+					timer = t;
+				}
+			}
+		}
+		return t;
+	}
+
+	/**
+	 * Replace the shared timer. The previous one is not stopped.
+	 * 
+	 * @param newTimer
+	 */
+	public static void setTimer(HashedWheelTimer newTimer) {
+		if (newTimer == null) {
+			throw new NullPointerException("timer");
+		}
+		synchronized (SetTimeout.class) {
+			timer = newTimer;
+		}
+	}
+
+	/**
+	 * Execute a given <code>Runnable</code> on the timer's dispatch threads, after
+	 * a given amount of time. No Thread is used while waiting.
+	 * 
+	 * @param runnable
+	 * @param ms
+	 */
+	public static Timeout schedule(Runnable runnable, long ms) {
+		return getTimer().schedule(runnable, ms, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Execute a given <code>Runnable</code> on the timer's dispatch threads every
+	 * <code>ms</code> milliseconds, at fixed rate, until
+	 * <code>clearInterval</code> is called. A run is skipped if the previous one
+	 * is still running. No Thread is started for each run.
+	 * 
+	 * @param runnable
+	 * @param ms
+	 */
+	public static Timeout setInterval(Runnable runnable, long ms) {
+		return getTimer().scheduleAtFixedRate(runnable, ms, ms, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Execute a given <code>Runnable</code> on the timer's dispatch threads
+	 * repeatedly, waiting <code>ms</code> milliseconds after the end of each run,
+	 * until <code>clearInterval</code> is called.
+	 * 
+	 * @param runnable
+	 * @param ms
+	 */
+	public static Timeout setIntervalWithFixedDelay(Runnable runnable, long ms) {
+		return getTimer().scheduleWithFixedDelay(runnable, ms, ms, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Stop a Timeout returned by <code>setInterval</code>. Just an alias for
+	 * <code>clearTimeout</code>, with a name remembering JavaScript equivalent.
+	 * 
+	 * @param interval
+	 */
+	public static void clearInterval(Timeout interval) {
+		interval.cancel();
+	}
+
+	/**
+	 * Cancel a Timeout returned by <code>schedule</code>, if not yet expired.
+	 * 
+	 * @param timeout
+	 */
+	public static void clearTimeout(Timeout timeout) {
+		timeout.cancel();
+	}
+
 	/**
 	 * Execute a given <code>Runnable</code> in a new Thread, after a given amount
-	 * of time.
+	 * of time. The Thread is a virtual one if
+	 * {@link PromiseExecutors#setVirtualThreads(boolean)} is enabled.
 	 * 
 	 * @param runnable
 	 * @param ms
 	 */
 	public static Thread setTimeout(Runnable runnable, int ms) {
-		Thread t = new Thread() {
-			@Override
-			public void run() {
-				try {
-					Thread.sleep(ms);
-				} catch (InterruptedException e) {
-					// clearInterval was called
-					return;
-				}
-				runnable.run();
+		Thread t = PromiseExecutors.newThread(() -> {
+			try {
+				Thread.sleep(ms);
+			} catch (InterruptedException e) {
+				// clearInterval was called
+				return;
 			}
-		};
+			runnable.run();
+		});
 		t.start();
 		return t;
 	}
@@ -0,0 +1,100 @@
+package com.github.promise;
+
+/**
+ * A task scheduled on a {@link HashedWheelTimer}, which can be cancelled until
+ * it expires. Periodic tasks never expire, they run until cancelled.
+ * 
+ * @see SetTimeout#schedule(Runnable, long)
+ * @see SetTimeout#setInterval(Runnable, long)
+ * @see SetTimeout#clearTimeout(Timeout)
+ */
+public final class Timeout {
+
+	static final int PENDING = 0;
+	static final int CANCELLED = 1;
+	static final int EXPIRED = 2;
+
+	final HashedWheelTimer timer;
+	final Runnable task;
+
+	/**
+	 * Period in nanoseconds, or 0 if not periodic
+	 */
+	final long period;
+	final boolean fixedRate;
+
+	/**
+	 * True while a periodic task is running. Set by the timer thread, cleared by
+	 * the Executor thread.
+	 */
+	volatile boolean running;
+
+	/**
+	 * Runs <code>task</code> on the timer Executor. Allocated once, so that
+	 * expiring does not allocate.
+	 */
+	final Runnable fire = this::fire;
+
+	/**
+	 * Deadline, in nanoseconds since timer start
+	 */
+	long deadline;
+	long remainingRounds;
+	volatile int state = PENDING;
+
+	// bucket list, guarded by timer lock
+	int bucket = -1;
+	Timeout prev;
+	Timeout next;
+
+	// list of timeouts expired in current tick, used by timer thread only
+	Timeout nextExpired;
+
+	Timeout(HashedWheelTimer timer, Runnable task, long period, boolean fixedRate) {
+		this.timer = timer;
+		this.task = task;
+		this.period = period;
+		this.fixedRate = fixedRate;
+	}
+
+	void fire() {
+		try {
+			task.run();
+		} finally {
+			running = false;
+			if (period > 0 && !fixedRate) {
+				timer.rearm(this);
+			}
+		}
+	}
+
+	/**
+	 * True if this is a periodic task
+	 */
+	public boolean isPeriodic() {
+		return period > 0;
+	}
+
+	/**
+	 * Cancel this timeout, if it is not expired yet
+	 * 
+	 * @return false if the timeout was already expired or cancelled
+	 */
+	public boolean cancel() {
+		return timer.cancel(this);
+	}
+
+	/**
+	 * True if {@link #cancel()} was called before expiration
+	 */
+	public boolean isCancelled() {
+		return state == CANCELLED;
+	}
+
+	/**
+	 * True if the task was submitted for execution (one-shot tasks only)
+	 */
+	public boolean isExpired() {
+		return state == EXPIRED;
+	}
+}
@@ -0,0 +1,27 @@
+package com.github.promise;
+
+/**
+ * The error of a promise that did not settle before its timeout or deadline.
+ * 
+ * @see Promise#timeout(long)
+ * @see AbortSignal#timeout(long)
+ */
+public class TimeoutException extends java.util.concurrent.TimeoutException {
+	private static final long serialVersionUID = -5236721962416207387L;
+
+	/**
+	 * Constructor
+	 */
+	public TimeoutException() {
+		super("The operation timed out");
+	}
+
+	/**
+	 * Constructor
+	 * 
+	 * @param message
+	 */
+	public TimeoutException(String message) {
+		super(message);
+	}
+}
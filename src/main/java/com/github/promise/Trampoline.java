@@ -0,0 +1,91 @@
+package com.github.promise;
+
+import java.util.ArrayDeque;
+
+/**
+ * Runs nested callbacks one after the other instead of recursively, so that
+ * long chains of promises settling each other on the same thread do not
+ * overflow the stack.
+ * 
+ * The first callback entering the trampoline on a thread runs immediately;
+ * callbacks submitted while it is running are queued and run, in order, after
+ * it returns, by the same thread.
+ */
+final class Trampoline {
+
+	private static final ThreadLocal<Trampoline> current = ThreadLocal.withInitial(Trampoline::new);
+
+	private final ArrayDeque<Runnable> queue = new ArrayDeque<>();
+	private boolean running;
+
+	private Trampoline() {
+	}
+
+	/**
+	 * Return the trampoline of current thread
+	 */
+	static Trampoline current() {
+		return current.get();
+	}
+
+	/**
+	 * Run task now, or after the running one if any
+	 * 
+	 * @param task
+	 */
+	static void execute(Runnable task) {
+		Trampoline trampoline = current.get();
+		if (trampoline.tryEnter()) {
+			run(task);
+			trampoline.drainAndExit();
+		} else {
+			trampoline.defer(task);
+		}
+	}
+
+	/**
+	 * Try to become the running callback of this thread. If it succeeds, the
+	 * caller must call <code>drainAndExit</code> when done.
+	 * 
+	 * @return false if another callback is running
+	 */
+	boolean tryEnter() {
+		if (running) {
+			return false;
+		}
+		running = true;
+		return true;
+	}
+
+	/**
+	 * Queue a task, to be run when the running callback exits
+	 * 
+	 * @param task
+	 */
+	void defer(Runnable task) {
+		queue.add(task);
+	}
+
+	/**
+	 * Run all queued tasks, including the ones they queue, then exit
+	 */
+	void drainAndExit() {
+		try {
+			Runnable task;
+			while ((task = queue.poll()) != null) {
+				run(task);
+			}
+		} finally {
+			running = false;
+		}
+	}
+
+	private static void run(Runnable task) {
+		try {
+			task.run();
+		} catch (RuntimeException ex) {
+			Thread current = Thread.currentThread();
+			current.getUncaughtExceptionHandler().uncaughtException(current, ex);
+		}
+	}
+}
@@ -0,0 +1,152 @@
+package com.github.fetch;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+
+import com.github.promise.AbortSignal;
+import com.github.promise.Promise;
+import com.github.promise.TimeoutException;
+
+/**
+ * Transport based on <code>java.net.http.HttpClient</code> (Java 11+). Requests
+ * are sent asynchronously, and the promise is settled by the client callbacks:
+ * no thread is held while waiting for the response. All requests share a single
+ * client, hence its connection pool and HTTP/2 connections, where concurrent
+ * requests to the same server are multiplexed.
+ * 
+ * This class is loaded by reflection from the multi-release jar.
+ */
+class HttpClientTransport implements FetchTransport {
+
+	/**
+	 * Headers that HttpClient does not allow to set, as it manages them itself.
+	 * Java 11 also restricts a few others, allowed since Java 12.
+	 */
+	private static final Set<String> RESTRICTED_HEADERS = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+	static {
+		RESTRICTED_HEADERS.add("Connection");
+		RESTRICTED_HEADERS.add("Content-Length");
+		RESTRICTED_HEADERS.add("Expect");
+		RESTRICTED_HEADERS.add("Host");
+		RESTRICTED_HEADERS.add("Upgrade");
+		if (Runtime.version().feature() < 12) {
+			RESTRICTED_HEADERS.add("Date");
+			RESTRICTED_HEADERS.add("From");
+			RESTRICTED_HEADERS.add("Origin");
+			RESTRICTED_HEADERS.add("Referer");
+			RESTRICTED_HEADERS.add("Via");
+			RESTRICTED_HEADERS.add("Warning");
+		}
+	}
+
+	private final HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_2)
+			.followRedirects(HttpClient.Redirect.NORMAL).build();
+
+	@Override
+	public Promise<Response> send(Request req, AbortSignal signal) {
+		FetchPromise<Response> promise = new FetchPromise<>(signal);
+		HttpRequest request;
+		try {
+			request = toHttpRequest(req, signal);
+		} catch (URISyntaxException | IllegalArgumentException | FileNotFoundException e) {
+			promise.fail(e);
+			return promise;
+		}
+
+		CompletableFuture<HttpResponse<InputStream>> future = client.sendAsync(request,
+				HttpResponse.BodyHandlers.ofInputStream());
+		Runnable listener = () -> future.cancel(true);
+		if (signal != null) {
+			signal.addAbortListener(listener);
+		}
+		future.whenComplete((httpResponse, error) -> {
+			if (signal != null) {
+				signal.removeAbortListener(listener);
+			}
+			if (error != null) {
+				promise.fail(toError(error));
+				return;
+			}
+			Response resp = new Response();
+			resp.setUrl(httpResponse.uri().toString());
+			resp.setStatus(httpResponse.statusCode());
+			resp.setHeaders(httpResponse.headers().map());
+			resp.setBody(httpResponse.body());
+			if (!promise.fulfill(resp)) {
+				// aborted meanwhile
+				close(httpResponse.body());
+			}
+		});
+		return promise;
+	}
+
+	private static HttpRequest toHttpRequest(Request req, AbortSignal signal)
+			throws URISyntaxException, FileNotFoundException {
+		HttpRequest.Builder builder = HttpRequest.newBuilder(new URI(req.getUrl())).method(req.getMethod(),
+				toBodyPublisher(req));
+		for (Entry<String, String> entry : req.getHeaders().entrySet()) {
+			if (!RESTRICTED_HEADERS.contains(entry.getKey())) {
+				builder.header(entry.getKey(), entry.getValue());
+			}
+		}
+		if (signal != null && signal.hasDeadline()) {
+			builder.timeout(Duration.ofNanos(Math.max(1, signal.remaining(TimeUnit.NANOSECONDS))));
+		}
+		return builder.build();
+	}
+
+	private static HttpRequest.BodyPublisher toBodyPublisher(Request req) throws FileNotFoundException {
+		RequestBody body = req.getRequestBody();
+		if ("GET".equals(req.getMethod()) || body.isEmpty()) {
+			return HttpRequest.BodyPublishers.noBody();
+		}
+		if (body instanceof RequestBody.BytesBody) {
+			return HttpRequest.BodyPublishers.ofByteArray(((RequestBody.BytesBody) body).bytes());
+		}
+		if (body instanceof RequestBody.FileBody) {
+			return HttpRequest.BodyPublishers.ofFile(((RequestBody.FileBody) body).file());
+		}
+		HttpRequest.BodyPublisher stream = HttpRequest.BodyPublishers.ofInputStream(() -> {
+			try {
+				return body.openStream();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		});
+		long length = body.contentLength();
+		return length >= 0 ? HttpRequest.BodyPublishers.fromPublisher(stream, length) : stream;
+	}
+
+	private static Exception toError(Throwable error) {
+		if (error instanceof CompletionException && error.getCause() != null) {
+			error = error.getCause();
+		}
+		if (error instanceof HttpTimeoutException) {
+			return new TimeoutException(error.getMessage());
+		}
+		return error instanceof Exception ? (Exception) error : new CompletionException(error);
+	}
+
+	private static void close(InputStream body) {
+		try {
+			body.close();
+		} catch (IOException e) {
+			// ignore
+		}
+	}
+}
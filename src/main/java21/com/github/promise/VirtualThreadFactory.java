@@ -0,0 +1,18 @@
+package com.github.promise;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * A ThreadFactory creating virtual threads. Only available in the Java 21+
+ * section of the multi-release jar, loaded by reflection from
+ * {@link PromiseExecutors}.
+ */
+final class VirtualThreadFactory implements ThreadFactory {
+
+	private final ThreadFactory factory = Thread.ofVirtual().name("promise4j-virtual-", 1).factory();
+
+	@Override
+	public Thread newThread(Runnable runnable) {
+		return factory.newThread(runnable);
+	}
+}
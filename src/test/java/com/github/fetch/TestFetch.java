@@ -1,17 +1,228 @@
 package com.github.fetch;
 
 import static com.github.fetch.Fetch.fetch;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.AfterClass;
+import org.junit.Assume;
+import org.junit.BeforeClass;
 import org.junit.Test;
 
+import com.github.promise.AbortController;
+import com.github.promise.AbortException;
+import com.github.promise.AbortSignal;
 import com.github.promise.Promise;
 import com.github.promise.Status;
+import com.github.promise.TimeoutException;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
 
 public class TestFetch {
 
+	private static HttpServer server;
+	private static String baseUrl;
+	private static final AtomicInteger hits = new AtomicInteger();
+	private static final AtomicInteger cacheHits = new AtomicInteger();
+	private static final AtomicInteger rangeRequests = new AtomicInteger();
+	private static final AtomicBoolean failRange = new AtomicBoolean();
+	private static final AtomicBoolean ignoreRanges = new AtomicBoolean();
+	private static final byte[] FILE = new byte[300000];
+	static {
+		new Random(42).nextBytes(FILE);
+	}
+
+	private static final String COMPRESSIBLE;
+	static {
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < 5000; i++) {
+			text.append("compressible line ").append(i % 10).append('\n');
+		}
+		COMPRESSIBLE = text.toString();
+	}
+
+	@BeforeClass
+	public static void startServer() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/hello", (exchange) -> {
+			send(exchange, 200, "Hello world");
+		});
+		server.createContext("/slow", (exchange) -> {
+			try {
+				Thread.sleep(2000);
+			} catch (InterruptedException e) {
+				// ignore
+			}
+			send(exchange, 200, "Sorry for the delay");
+		});
+		server.createContext("/counted", (exchange) -> {
+			int n = hits.incrementAndGet();
+			try {
+				Thread.sleep(300);
+			} catch (InterruptedException e) {
+				// ignore
+			}
+			send(exchange, 200, "Hit " + n);
+		});
+		server.createContext("/cached", (exchange) -> {
+			cacheHits.incrementAndGet();
+			exchange.getResponseHeaders().set("Cache-Control", "max-age=1");
+			exchange.getResponseHeaders().set("ETag", "\"v1\"");
+			if ("\"v1\"".equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+				exchange.sendResponseHeaders(304, -1);
+				exchange.close();
+			} else {
+				send(exchange, 200, "Cached content");
+			}
+		});
+		server.createContext("/chunked", (exchange) -> {
+			exchange.sendResponseHeaders(200, 0);
+			try (OutputStream out = exchange.getResponseBody()) {
+				for (int i = 0; i < 1000; i++) {
+					out.write(("line " + i + "\n").getBytes(StandardCharsets.UTF_8));
+					out.flush();
+				}
+			}
+		});
+		server.createContext("/stream", (exchange) -> {
+			exchange.sendResponseHeaders(200, 0);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write("first\n".getBytes(StandardCharsets.UTF_8));
+				out.flush();
+				Thread.sleep(500);
+				out.write("second\n".getBytes(StandardCharsets.UTF_8));
+			} catch (InterruptedException e) {
+				// ignore
+			}
+		});
+		server.createContext("/echo", (exchange) -> {
+			ByteArrayOutputStream body = new ByteArrayOutputStream();
+			boolean gzip = "gzip".equals(exchange.getRequestHeaders().getFirst("Content-Encoding"));
+			try (InputStream in = gzip ? new GZIPInputStream(exchange.getRequestBody()) : exchange.getRequestBody()) {
+				byte[] buffer = new byte[8192];
+				int n;
+				while ((n = in.read(buffer)) >= 0) {
+					body.write(buffer, 0, n);
+				}
+			}
+			send(exchange, 200, new String(body.toByteArray(), StandardCharsets.UTF_8));
+		});
+		server.createContext("/compressed", (exchange) -> {
+			// gzip, or deflate with or without zlib wrapper, if accepted
+			String accepted = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+			String query = exchange.getRequestURI().getQuery();
+			String encoding = query != null && query.startsWith("deflate") ? "deflate" : "gzip";
+			exchange.getResponseHeaders().set("X-Accept-Encoding", String.valueOf(accepted));
+			if (accepted == null || !accepted.contains(encoding)) {
+				send(exchange, 200, COMPRESSIBLE);
+				return;
+			}
+			exchange.getResponseHeaders().set("Content-Encoding", encoding);
+			exchange.sendResponseHeaders(200, 0);
+			try (OutputStream out = encoding.equals("gzip") ? new GZIPOutputStream(exchange.getResponseBody())
+					: new DeflaterOutputStream(exchange.getResponseBody(),
+							new Deflater(Deflater.DEFAULT_COMPRESSION, "deflate=raw".equals(query)))) {
+				out.write(COMPRESSIBLE.getBytes(StandardCharsets.UTF_8));
+			}
+		});
+		server.createContext("/file", (exchange) -> {
+			exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+			if ("HEAD".equals(exchange.getRequestMethod())) {
+				exchange.getResponseHeaders().set("Content-Length", String.valueOf(FILE.length));
+				exchange.sendResponseHeaders(200, -1);
+				exchange.close();
+				return;
+			}
+			String range = exchange.getRequestHeaders().getFirst("Range");
+			if (range != null && ignoreRanges.get()) {
+				rangeRequests.incrementAndGet();
+				range = null;
+			}
+			if (range == null) {
+				exchange.sendResponseHeaders(200, FILE.length);
+				try (OutputStream out = exchange.getResponseBody()) {
+					out.write(FILE);
+				}
+				return;
+			}
+			rangeRequests.incrementAndGet();
+			String[] bounds = range.substring("bytes=".length()).split("-");
+			int start = Integer.parseInt(bounds[0]);
+			int end = Integer.parseInt(bounds[1]);
+			exchange.getResponseHeaders().set("Content-Range", "bytes " + start + "-" + end + "/" + FILE.length);
+			exchange.sendResponseHeaders(206, end - start + 1);
+			OutputStream out = exchange.getResponseBody();
+			if (start > 0 && failRange.getAndSet(false)) {
+				// send half of the range, then drop the connection
+				out.write(FILE, start, (end - start + 1) / 2);
+				out.flush();
+				throw new IOException("dropped");
+			}
+			out.write(FILE, start, end - start + 1);
+			out.close();
+		});
+		server.createContext("/big", (exchange) -> {
+			char[] big = new char[70000];
+			Arrays.fill(big, 'x');
+			exchange.getResponseHeaders().set("Cache-Control", "max-age=60");
+			exchange.getResponseHeaders().set("X-Big", new String(big));
+			send(exchange, 200, "Big");
+		});
+		server.setExecutor(Executors.newCachedThreadPool());
+		server.start();
+		baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+	}
+
+	@AfterClass
+	public static void stopServer() {
+		server.stop(0);
+	}
+
+	private static void send(HttpExchange exchange, int status, String body) throws IOException {
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		exchange.sendResponseHeaders(status, bytes.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(bytes);
+		}
+	}
+
 	@Test
 	public void testGetText() throws InterruptedException {
 		final String URL = "https://www.google.com";
@@ -34,4 +245,551 @@ public class TestFetch {
 		assertNotNull(p.getValue());
 		assertFalse(p.getValue().getEntries().isEmpty());
 	}
+
+	@Test
+	public void testGetLocal() {
+		Promise<String> p = fetch(baseUrl + "/hello").thenPromise((response) -> (response.text()));
+		assertEquals("Hello world", p.join());
+	}
+
+	@Test
+	public void testAbort() throws InterruptedException {
+		AbortController controller = new AbortController();
+		Request request = new Request(baseUrl + "/slow");
+		request.setSignal(controller.getSignal());
+		Promise<Response> p = fetch(request);
+		Thread.sleep(100);
+
+		long start = System.currentTimeMillis();
+		controller.abort();
+		assertEquals(Status.REJECTED, p.getStatus());
+		assertTrue(p.getError() instanceof AbortException);
+		assertTrue(System.currentTimeMillis() - start < 500);
+	}
+
+	@Test
+	public void testRaceClosesLoser() throws IOException, InterruptedException {
+		raceSlow(FetchTransport.urlConnection());
+		if (FetchTransport.isHttpClientSupported()) {
+			raceSlow(FetchTransport.httpClient());
+		}
+		try (NioTransport transport = new NioTransport(1)) {
+			raceSlow(transport);
+		}
+	}
+
+	/**
+	 * Race two slow requests on a server telling when a connection is closed
+	 * before its response is sent: cancelling the loser must close it
+	 */
+	private static void raceSlow(FetchTransport transport) throws IOException, InterruptedException {
+		CountDownLatch closed = new CountDownLatch(1);
+		try (ServerSocket slowServer = new ServerSocket(0, 0, InetAddress.getByName("127.0.0.1"))) {
+			Thread acceptor = new Thread(() -> {
+				try {
+					for (;;) {
+						Socket socket = slowServer.accept();
+						new Thread(() -> serveSlow(socket, closed)).start();
+					}
+				} catch (IOException e) {
+					// server closed
+				}
+			});
+			acceptor.start();
+
+			String url = "http://127.0.0.1:" + slowServer.getLocalPort() + "/slow?ms=";
+			Request fast = new Request(url + 100);
+			fast.setTransport(transport);
+			Request slow = new Request(url + 5000);
+			slow.setTransport(transport);
+			Promise<Response> loser = fetch(slow);
+			Promise<Object> race = Promise.race(fetch(fast), loser);
+
+			Promise.awaitAll(race);
+			assertEquals(Status.FULFILLED, race.getStatus());
+			assertTrue(loser.isCancelled());
+			assertTrue(closed.await(2, TimeUnit.SECONDS));
+		}
+	}
+
+	/**
+	 * Answer after the delay given in the query, unless the client closes the
+	 * connection first
+	 */
+	private static void serveSlow(Socket socket, CountDownLatch closed) {
+		try (Socket s = socket) {
+			InputStream in = s.getInputStream();
+			StringBuilder head = new StringBuilder();
+			while (head.indexOf("\r\n\r\n") < 0) {
+				int b = in.read();
+				if (b < 0) {
+					return;
+				}
+				head.append((char) b);
+			}
+			String target = head.substring(0, head.indexOf("\r\n")).split(" ")[1];
+			s.setSoTimeout(Integer.parseInt(target.substring(target.indexOf("ms=") + 3)));
+			try {
+				if (in.read() < 0) {
+					closed.countDown();
+				}
+			} catch (SocketTimeoutException e) {
+				OutputStream out = s.getOutputStream();
+				out.write("HTTP/1.1 200 OK\r\nContent-Length: 2\r\nConnection: close\r\n\r\nok"
+						.getBytes(StandardCharsets.US_ASCII));
+				out.flush();
+			}
+		} catch (IOException e) {
+			// reset by the client
+			closed.countDown();
+		}
+	}
+
+	@Test
+	public void testDeadline() throws InterruptedException {
+		long start = System.currentTimeMillis();
+		Promise<String> p = Promise.<String>withDeadline(Instant.now().plusMillis(300), (resolve, reject) -> {
+			resolve.accept(baseUrl + "/slow");
+		}).thenPromise((url) -> fetch(url)).thenPromise((response) -> response.text());
+
+		Promise.awaitAll(p);
+		assertEquals(Status.REJECTED, p.getStatus());
+		assertTrue(String.valueOf(p.getError()), p.getError() instanceof TimeoutException);
+		assertTrue(System.currentTimeMillis() - start < 1000);
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testSingleFlight() throws InterruptedException {
+		Fetch.setSingleFlight(true);
+		try {
+			hits.set(0);
+			AbortController controller = new AbortController();
+			Promise<String>[] texts = new Promise[20];
+			for (int i = 0; i < texts.length; i++) {
+				Request request = new Request(baseUrl + "/counted");
+				if (i == 0) {
+					request.setSignal(controller.getSignal());
+				}
+				texts[i] = fetch(request).thenPromise((response) -> response.text());
+			}
+			controller.abort();
+
+			Promise.awaitAll(texts);
+			assertEquals(Status.REJECTED, texts[0].getStatus());
+			for (int i = 1; i < texts.length; i++) {
+				assertEquals("Hit 1", texts[i].join());
+			}
+			assertEquals(1, hits.get());
+
+			// a new request once the previous one is done
+			assertEquals("Hit 2", fetch(baseUrl + "/counted").thenPromise((response) -> response.text()).join());
+		} finally {
+			Fetch.setSingleFlight(false);
+		}
+	}
+
+	@Test
+	public void testCache() throws InterruptedException {
+		HttpCache cache = new HttpCache(10);
+		Fetch.setCache(cache);
+		try {
+			cacheHits.set(0);
+			String url = baseUrl + "/cached";
+			assertEquals("Cached content", fetch(url).thenPromise((response) -> response.text()).join());
+			Response cached = fetch(url).join();
+			assertEquals("max-age=1", cached.getHeader("cache-control"));
+			assertEquals("Cached content", cached.text().join());
+			// each hit has its own headers
+			cached.getHeaders().clear();
+			assertEquals("max-age=1", fetch(url).join().getHeader("cache-control"));
+			assertEquals(1, cacheHits.get());
+			assertEquals(1, cache.getMissCount());
+			assertEquals(2, cache.getHitCount());
+
+			// stale: revalidated with a 304
+			Thread.sleep(1100);
+			assertEquals("Cached content", fetch(url).thenPromise((response) -> response.text()).join());
+			assertEquals(2, cacheHits.get());
+			assertEquals(1, cache.getRevalidationCount());
+			assertEquals(1, cache.getMissCount());
+		} finally {
+			Fetch.setCache(null);
+		}
+	}
+
+	@Test
+	public void testDiskCache() throws IOException {
+		Path directory = Files.createTempDirectory("fetch-cache");
+		try {
+			cacheHits.set(0);
+			String url = baseUrl + "/cached";
+			Fetch.setCache(new HttpCache(10, directory));
+			assertEquals("Cached content", fetch(url).thenPromise((response) -> response.text()).join());
+
+			// a new cache, as after a restart
+			HttpCache cache = new HttpCache(10, directory);
+			Fetch.setCache(cache);
+			assertEquals("Cached content", fetch(url).thenPromise((response) -> response.text()).join());
+			assertEquals(1, cacheHits.get());
+			assertEquals(1, cache.getHitCount());
+
+			// header values over 64 KiB are saved too
+			assertEquals("Big", fetch(baseUrl + "/big").thenPromise((response) -> response.text()).join());
+			cache = new HttpCache(10, directory);
+			Fetch.setCache(cache);
+			assertEquals(70000, fetch(baseUrl + "/big").join().getHeader("X-Big").length());
+			assertEquals(1, cache.getHitCount());
+			assertTrue(Files.list(directory).allMatch((file) -> file.toString().endsWith(".cache")));
+
+			cache.clear();
+			assertEquals(0, cache.size());
+			assertFalse(Files.list(directory).findAny().isPresent());
+		} finally {
+			Fetch.setCache(null);
+			Files.deleteIfExists(directory);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testHttpClient() throws InterruptedException {
+		Assume.assumeTrue(FetchTransport.isHttpClientSupported());
+		Fetch.setTransport(FetchTransport.httpClient());
+		try {
+			Promise<String>[] texts = new Promise[50];
+			for (int i = 0; i < texts.length; i++) {
+				texts[i] = fetch(baseUrl + "/hello").thenPromise((response) -> response.text());
+			}
+			for (Promise<String> text : texts) {
+				assertEquals("Hello world", text.join());
+			}
+
+			// headers restricted by some HttpClient versions do not fail the request
+			Request referred = new Request(baseUrl + "/hello");
+			referred.getHeaders().put("Referer", baseUrl);
+			referred.getHeaders().put("Origin", baseUrl);
+			assertEquals("Hello world", fetch(referred).thenPromise((response) -> response.text()).join());
+
+			AbortController controller = new AbortController();
+			Request request = new Request(baseUrl + "/slow");
+			request.setSignal(controller.getSignal());
+			Promise<Response> p = fetch(request);
+			Thread.sleep(100);
+			controller.abort();
+			assertEquals(Status.REJECTED, p.getStatus());
+			assertTrue(p.getError() instanceof AbortException);
+
+			Promise<Response> p2 = Promise.<String>withDeadline(Instant.now().plusMillis(300), (resolve, reject) -> {
+				resolve.accept(baseUrl + "/slow");
+			}).thenPromise((url) -> fetch(url));
+			Promise.awaitAll(p2);
+			assertTrue(String.valueOf(p2.getError()), p2.getError() instanceof TimeoutException);
+		} finally {
+			Fetch.setTransport(FetchTransport.urlConnection());
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testNio() throws IOException, InterruptedException {
+		try (NioTransport transport = new NioTransport(2)) {
+			Fetch.setTransport(transport);
+			Promise<String>[] texts = new Promise[200];
+			for (int i = 0; i < texts.length; i++) {
+				texts[i] = fetch(baseUrl + "/hello").thenPromise((response) -> response.text());
+			}
+			for (Promise<String> text : texts) {
+				assertEquals("Hello world", text.join());
+			}
+			assertTrue(transport.getIdleConnectionCount() > 0);
+
+			String chunked = fetch(baseUrl + "/chunked").thenPromise((response) -> response.text()).join();
+			assertTrue(chunked.startsWith("line 0\n"));
+			assertTrue(chunked.endsWith("line 999\n"));
+
+			Response head = fetch(baseUrl + "/hello", "HEAD", "").join();
+			assertEquals(200, head.getStatus());
+			assertEquals("Hello world", fetch(baseUrl + "/hello").thenPromise((response) -> response.text()).join());
+
+			AbortController controller = new AbortController();
+			Request request = new Request(baseUrl + "/slow");
+			request.setSignal(controller.getSignal());
+			Promise<Response> p = fetch(request);
+			Thread.sleep(100);
+			controller.abort();
+			assertEquals(Status.REJECTED, p.getStatus());
+			assertTrue(p.getError() instanceof AbortException);
+
+			// resolved with the headers, the body is read as it comes
+			long start = System.currentTimeMillis();
+			Response streamed = fetch(baseUrl + "/stream").join();
+			assertTrue(System.currentTimeMillis() - start < 400);
+			assertEquals("first\nsecond\n", streamed.text().join());
+
+			// bodies are read by I/O callbacks: no task waits for the server
+			Executor executor = Promise.getDefaultExecutor();
+			AtomicInteger running = new AtomicInteger();
+			Promise.setDefaultExecutor((task) -> executor.execute(() -> {
+				running.incrementAndGet();
+				try {
+					task.run();
+				} finally {
+					running.decrementAndGet();
+				}
+			}));
+			try {
+				Promise<String>[] slowTexts = new Promise[10];
+				Promise<byte[]>[] slowBytes = new Promise[10];
+				for (int i = 0; i < slowTexts.length; i++) {
+					slowTexts[i] = fetch(baseUrl + "/stream").join().text();
+					slowBytes[i] = fetch(baseUrl + "/stream").join().arrayBuffer();
+				}
+				BodyReader reader = fetch(baseUrl + "/stream").join().body();
+				Promise<ByteBuffer> first = reader.read();
+				Promise<ByteBuffer> second = reader.read();
+				Thread.sleep(200);
+				assertEquals(0, running.get());
+				for (int i = 0; i < slowTexts.length; i++) {
+					assertEquals("first\nsecond\n", slowTexts[i].join());
+					assertEquals("first\nsecond\n", new String(slowBytes[i].join(), StandardCharsets.UTF_8));
+				}
+				assertEquals("first\n", StandardCharsets.UTF_8.decode(first.join()).toString());
+				assertEquals("second\n", StandardCharsets.UTF_8.decode(second.join()).toString());
+				assertEquals(null, reader.read().join());
+			} finally {
+				Promise.setDefaultExecutor(executor);
+			}
+
+			// the body read times out at the deadline of the request
+			Request deadline = new Request(baseUrl + "/stream");
+			deadline.setSignal(AbortSignal.timeout(300));
+			Promise<String> timedOutText = fetch(deadline).join().text();
+			Promise.awaitAll(timedOutText);
+			assertTrue(String.valueOf(timedOutText.getError()), timedOutText.getError() instanceof TimeoutException);
+
+			transport.setReadTimeoutMs(200);
+			Promise<Response> timedOut = fetch(baseUrl + "/slow");
+			Promise.awaitAll(timedOut);
+			assertTrue(String.valueOf(timedOut.getError()), timedOut.getError() instanceof SocketTimeoutException);
+		} finally {
+			Fetch.setTransport(FetchTransport.urlConnection());
+		}
+	}
+
+	@Test
+	public void testBodyReader() {
+		BodyReader reader = fetch(baseUrl + "/chunked").join().body(100);
+		long total = 0;
+		ByteBuffer chunk;
+		while ((chunk = reader.read().join()) != null) {
+			assertTrue(chunk.remaining() <= 100);
+			total += chunk.remaining();
+		}
+		assertEquals(8890, total);
+		assertEquals(null, reader.read().join());
+	}
+
+	@Test
+	public void testLines() {
+		List<String> lines = new ArrayList<>();
+		long count = fetch(baseUrl + "/chunked").thenPromise((response) -> response.lines(lines::add)).join();
+		assertEquals(1000, count);
+		assertEquals("line 999", lines.get(999));
+	}
+
+	@Test
+	public void testRequestBodies() throws IOException {
+		List<FetchTransport> transports = new ArrayList<>();
+		transports.add(FetchTransport.urlConnection());
+		if (FetchTransport.isHttpClientSupported()) {
+			transports.add(FetchTransport.httpClient());
+		}
+		Path file = Files.createTempFile("upload", ".txt");
+		try (NioTransport nio = new NioTransport(2)) {
+			transports.add(nio);
+			StringBuilder large = new StringBuilder();
+			for (int i = 0; i < 100000; i++) {
+				large.append("line ").append(i).append('\n');
+			}
+			Files.write(file, large.toString().getBytes(StandardCharsets.UTF_8));
+
+			for (FetchTransport transport : transports) {
+				String name = transport.getClass().getSimpleName();
+				assertEquals(name, "h\u00e9llo \u20ac", echo(transport, RequestBody.of("h\u00e9llo \u20ac")));
+				assertEquals(name, "bytes", echo(transport, RequestBody.of("bytes".getBytes(StandardCharsets.UTF_8))));
+				assertEquals(name, "stream", echo(transport,
+						RequestBody.of(new ByteArrayInputStream("stream".getBytes(StandardCharsets.UTF_8)))));
+				assertEquals(name, large.toString(), echo(transport, RequestBody.of(file)));
+
+				Iterator<String> chunks = Arrays.asList("one,", "two,", "three").iterator();
+				assertEquals(name, "one,two,three", echo(transport, RequestBody.ofChunks(
+						() -> chunks.hasNext() ? chunks.next().getBytes(StandardCharsets.UTF_8) : null)));
+			}
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	@Test
+	public void testFileBodyChanged() throws IOException {
+		Path file = Files.createTempFile("upload", ".txt");
+		try {
+			Files.write(file, "0123456789".getBytes(StandardCharsets.UTF_8));
+			RequestBody body = RequestBody.of(file);
+
+			// grown: only the declared length is sent
+			Files.write(file, "0123456789abc".getBytes(StandardCharsets.UTF_8));
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			body.writeTo(out);
+			assertEquals("0123456789", new String(out.toByteArray(), StandardCharsets.UTF_8));
+			try (InputStream in = body.openStream()) {
+				byte[] bytes = new byte[20];
+				int n = 0;
+				int r;
+				while ((r = in.read(bytes, n, bytes.length - n)) > 0) {
+					n += r;
+				}
+				assertEquals(10, n);
+			}
+
+			// shrunk: fails instead of hanging
+			Files.write(file, "01234".getBytes(StandardCharsets.UTF_8));
+			try {
+				body.writeTo(new ByteArrayOutputStream());
+				fail("shrunk file sent");
+			} catch (IOException e) {
+				assertTrue(e.getMessage().contains("changed"));
+			}
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	private static String echo(FetchTransport transport, RequestBody body) {
+		Request request = new Request(baseUrl + "/echo");
+		request.setMethod("POST");
+		request.setBody(body);
+		request.setTransport(transport);
+		return fetch(request).thenPromise((response) -> response.text()).join();
+	}
+
+	@Test
+	public void testToFile() throws IOException, NoSuchAlgorithmException {
+		StringBuilder expected = new StringBuilder();
+		for (int i = 0; i < 1000; i++) {
+			expected.append("line ").append(i).append('\n');
+		}
+		byte[] bytes = expected.toString().getBytes(StandardCharsets.UTF_8);
+
+		Path file = Files.createTempFile("download", ".txt");
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			long size = fetch(baseUrl + "/chunked").thenPromise((response) -> response.toFile(file, digest)).join();
+			assertEquals(bytes.length, size);
+			assertArrayEquals(bytes, Files.readAllBytes(file));
+			assertArrayEquals(MessageDigest.getInstance("SHA-256").digest(bytes), digest.digest());
+
+			size = fetch(baseUrl + "/hello").thenPromise((response) -> response.toFile(file)).join();
+			assertEquals(11, size);
+			assertEquals("Hello world", new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	@Test
+	public void testDownload() throws IOException {
+		Path file = Files.createTempFile("download", ".bin");
+		try {
+			DownloadOptions options = new DownloadOptions();
+			options.setSegments(4);
+			options.setMinSegmentSize(10000);
+			rangeRequests.set(0);
+			failRange.set(true);
+			long size = Fetch.download(baseUrl + "/file", file, options).join();
+			assertEquals(FILE.length, size);
+			assertArrayEquals(FILE, Files.readAllBytes(file));
+			// one segment was resumed
+			assertEquals(5, rangeRequests.get());
+
+			// too small to be split
+			options.setMinSegmentSize(1000000);
+			rangeRequests.set(0);
+			size = Fetch.download(baseUrl + "/file", file, options).join();
+			assertEquals(FILE.length, size);
+			assertArrayEquals(FILE, Files.readAllBytes(file));
+			assertEquals(0, rangeRequests.get());
+
+			// ranges advertised but ignored: a single GET, without retrying segments
+			options.setMinSegmentSize(10000);
+			rangeRequests.set(0);
+			ignoreRanges.set(true);
+			size = Fetch.download(baseUrl + "/file", file, options).join();
+			assertEquals(FILE.length, size);
+			assertArrayEquals(FILE, Files.readAllBytes(file));
+			assertTrue(rangeRequests.get() <= 4);
+		} finally {
+			ignoreRanges.set(false);
+			Files.delete(file);
+		}
+	}
+
+	@Test
+	public void testCompression() throws IOException {
+		List<FetchTransport> transports = new ArrayList<>();
+		transports.add(FetchTransport.urlConnection());
+		if (FetchTransport.isHttpClientSupported()) {
+			transports.add(FetchTransport.httpClient());
+		}
+		try (NioTransport nio = new NioTransport(2)) {
+			transports.add(nio);
+			for (FetchTransport transport : transports) {
+				String name = transport.getClass().getSimpleName();
+				for (String path : new String[] { "/compressed", "/compressed?deflate", "/compressed?deflate=raw" }) {
+					Request request = new Request(baseUrl + path);
+					request.setTransport(transport);
+					Response response = fetch(request).join();
+					assertEquals(name, "gzip, deflate", response.getHeader("X-Accept-Encoding"));
+					assertEquals(name, null, response.getHeader("Content-Encoding"));
+					assertEquals(name, null, response.getHeader("Content-Length"));
+					assertEquals(name + path, COMPRESSIBLE, response.text().join());
+				}
+
+				// a request with its own Accept-Encoding gets the body as sent
+				Request request = new Request(baseUrl + "/compressed");
+				request.setTransport(transport);
+				request.getHeaders().put("Accept-Encoding", "gzip");
+				Response response = fetch(request).join();
+				assertEquals(name, "gzip", response.getHeader("Content-Encoding"));
+				try (InputStream in = new GZIPInputStream(response.getBody())) {
+					byte[] bytes = new byte[COMPRESSIBLE.length() + 1];
+					int n = 0;
+					int r;
+					while ((r = in.read(bytes, n, bytes.length - n)) > 0) {
+						n += r;
+					}
+					assertEquals(name, COMPRESSIBLE, new String(bytes, 0, n, StandardCharsets.UTF_8));
+				}
+
+				Request upload = new Request(baseUrl + "/echo");
+				upload.setMethod("POST");
+				upload.setTransport(transport);
+				upload.setCompressBody(true);
+				upload.setJsonBody(Arrays.asList(COMPRESSIBLE, "b"));
+				assertEquals(name, "[\"" + COMPRESSIBLE.replace("\n", "\\n") + "\",\"b\"]",
+						fetch(upload).thenPromise((r) -> r.text()).join());
+				upload.setBody(RequestBody.of(new ByteArrayInputStream(COMPRESSIBLE.getBytes(StandardCharsets.UTF_8))));
+				assertEquals(name, COMPRESSIBLE, fetch(upload).thenPromise((r) -> r.text()).join());
+			}
+			assertTrue(Compression.getFreeCount() > 0);
+
+			Fetch.setCompression(false);
+			Response response = fetch(baseUrl + "/compressed").join();
+			assertEquals("null", response.getHeader("X-Accept-Encoding"));
+			assertEquals(COMPRESSIBLE, response.text().join());
+		} finally {
+			Fetch.setCompression(true);
+		}
+	}
 }
@@ -0,0 +1,190 @@
+package com.github.fetch;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.github.promise.Promise;
+import com.github.promise.Status;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.reflect.TypeToken;
+
+public class TestResponse {
+
+	@Test
+	public void testJson() {
+		Response response = InMemoryTransport.response(200,
+				"{\"count\": 1, \"entries\": [{\"API\": \"Cats\", \"HTTPS\": true}]}");
+		PublicApiListBean bean = response.json(PublicApiListBean.class).join();
+		assertEquals("Cats", bean.getEntries().get(0).getAPI());
+	}
+
+	@Test
+	public void testJsonGenericType() {
+		Response response = InMemoryTransport.response(200, "[{\"API\": \"Cats\"}, {\"API\": \"Dogs\"}]");
+		List<PublicApiBean> beans = response.<List<PublicApiBean>>json(new TypeToken<List<PublicApiBean>>() {
+		}.getType()).join();
+		assertEquals(2, beans.size());
+		assertEquals("Dogs", beans.get(1).getAPI());
+	}
+
+	@Test
+	public void testJsonSyntaxError() throws InterruptedException {
+		Promise<PublicApiBean> p = InMemoryTransport.response(200, "{\"API\": ").json(PublicApiBean.class);
+		Promise.awaitAll(p);
+		assertEquals(Status.REJECTED, p.getStatus());
+		assertTrue(p.getError() instanceof JsonSyntaxException);
+	}
+
+	@Test
+	public void testJsonTrailingContent() throws InterruptedException {
+		Promise<PublicApiBean> p = InMemoryTransport.response(200, "{\"API\": \"Cats\"} garbage")
+				.json(PublicApiBean.class);
+		Promise.awaitAll(p);
+		assertEquals(Status.REJECTED, p.getStatus());
+		assertTrue(String.valueOf(p.getError()), p.getError() instanceof JsonSyntaxException);
+
+		p = InMemoryTransport.response(200, "{\"API\": \"Cats\"} {}").json(PublicApiBean.class);
+		Promise.awaitAll(p);
+		assertTrue(String.valueOf(p.getError()), p.getError() instanceof JsonSyntaxException);
+
+		// trailing whitespace is fine
+		assertEquals("Cats", InMemoryTransport.response(200, "{\"API\": \"Cats\"}\n").json(PublicApiBean.class)
+				.join().getAPI());
+	}
+
+	@Test
+	public void testJsonStreamArray() {
+		List<PublicApiBean> beans = new ArrayList<>();
+		long count = InMemoryTransport.response(200, " [{\"API\": \"Cats\"}, {\"API\": \"Dogs\"}]")
+				.jsonStream(PublicApiBean.class, beans::add).join();
+		assertEquals(2, count);
+		assertEquals("Cats", beans.get(0).getAPI());
+	}
+
+	@Test
+	public void testJsonStreamNdjson() {
+		List<PublicApiBean> beans = new ArrayList<>();
+		long count = InMemoryTransport.response(200, "{\"API\": \"Cats\"}\n{\"API\": \"Dogs\"}\n{\"API\": \"Fish\"}\n")
+				.jsonStream(PublicApiBean.class, beans::add).join();
+		assertEquals(3, count);
+		assertEquals("Fish", beans.get(2).getAPI());
+	}
+
+	@Test
+	public void testBufferPool() {
+		BufferPool pool = new BufferPool(1024, 2, true);
+		ByteBuffer a = pool.acquire();
+		ByteBuffer b = pool.acquire();
+		ByteBuffer c = pool.acquire();
+		assertTrue(a.isDirect());
+		assertEquals(1024, a.capacity());
+		a.put((byte) 1);
+		pool.release(a);
+		pool.release(b);
+		pool.release(c);
+		assertEquals(2, pool.getFreeCount());
+
+		ByteBuffer d = pool.acquire();
+		assertTrue(d == a || d == b);
+		assertEquals(0, d.position());
+		assertEquals(1, pool.getFreeCount());
+	}
+
+	@Test
+	public void testText() throws Exception {
+		StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < 1000; i++) {
+			builder.append("caf\u00e9 \u20ac").append(i).append('\n');
+		}
+		String text = builder.toString();
+		assertEquals(text, InMemoryTransport.response(200, text).text().join());
+
+		// multi-byte characters split across reads of a small buffer
+		BufferPool pool = new BufferPool(7, 1, false);
+		byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+		assertEquals(text, TextDecoder.decode(Channels.newChannel(new ByteArrayInputStream(bytes)),
+				StandardCharsets.UTF_8, -1, pool));
+		assertEquals(1, pool.getFreeCount());
+		assertEquals("\u00e9t\u00e9", InMemoryTransport.response(200, "text/plain", "\u00e9t\u00e9".getBytes("ISO-8859-1"))
+				.text("ISO-8859-1").join());
+	}
+
+	@Test
+	public void testArrayBuffer() {
+		byte[] bytes = new byte[20000];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = (byte) i;
+		}
+		assertArrayEquals(bytes, InMemoryTransport.response(200, "application/octet-stream", bytes).arrayBuffer().join());
+
+		// a wrong Content-Length only changes the initial size
+		for (String length : new String[] { "10", "30000", "invalid" }) {
+			Response response = InMemoryTransport.response(200, "application/octet-stream", bytes);
+			response.getHeaders().put("Content-Length", Collections.singletonList(length));
+			assertArrayEquals(bytes, response.arrayBuffer().join());
+		}
+		assertEquals(0, new Response().arrayBuffer().join().length);
+	}
+
+	@Test
+	public void testByteBuffer() {
+		BufferPool pool = new BufferPool(1024, 4, true);
+		ByteBuffer buffer = InMemoryTransport.response(200, "hello").byteBuffer(pool).join();
+		assertTrue(buffer.isDirect());
+		assertEquals(1024, buffer.capacity());
+		assertEquals(5, buffer.remaining());
+		byte[] bytes = new byte[buffer.remaining()];
+		buffer.get(bytes);
+		assertEquals("hello", new String(bytes, StandardCharsets.US_ASCII));
+		pool.release(buffer);
+		assertEquals(1, pool.getFreeCount());
+
+		// larger than the pooled buffers, with or without Content-Length
+		byte[] large = new byte[4000];
+		large[3999] = 42;
+		Response response = InMemoryTransport.response(200, "application/octet-stream", large);
+		buffer = response.byteBuffer(pool).join();
+		assertEquals(4000, buffer.capacity());
+		assertEquals(42, buffer.get(3999));
+		// presized up to 4 pool buffers only, then grown
+		large = new byte[5000];
+		large[4999] = 42;
+		response = InMemoryTransport.response(200, "application/octet-stream", large);
+		buffer = response.byteBuffer(pool).join();
+		assertEquals(5000, buffer.remaining());
+		assertEquals(42, buffer.get(4999));
+		response = InMemoryTransport.response(200, "application/octet-stream", large);
+		response.getHeaders().remove("Content-Length");
+		buffer = response.byteBuffer(pool).join();
+		assertTrue(buffer.isDirect());
+		assertEquals(5000, buffer.remaining());
+		assertEquals(42, buffer.get(4999));
+		pool.release(buffer);
+		assertFalse(pool.getFreeCount() > 1);
+	}
+
+	@Test
+	public void testCopyHeaders() throws IOException {
+		Response response = InMemoryTransport.response(200, "Hello");
+		response.buffer();
+		Response copy = response.copy();
+		copy.getHeaders().put("X-Copy", new ArrayList<>(Collections.singletonList("1")));
+		copy.getHeaders().get("Content-Length").set(0, "0");
+		assertEquals(null, response.getHeader("X-Copy"));
+		assertEquals("5", response.getHeader("Content-Length"));
+		assertEquals("Hello", copy.text().join());
+	}
+}
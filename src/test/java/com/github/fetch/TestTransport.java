@@ -0,0 +1,127 @@
+package com.github.fetch;
+
+import static com.github.fetch.Fetch.fetch;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.github.promise.Promise;
+import com.github.promise.Status;
+
+public class TestTransport {
+
+	@Test
+	public void testInMemory() {
+		InMemoryTransport transport = new InMemoryTransport();
+		transport.route("http://service/", (req) -> InMemoryTransport.response(200, "root"));
+		transport.route("http://service/api/", (req) -> InMemoryTransport.response(200, "api " + req.getMethod()));
+		transport.route("DELETE", "http://service/api/", (req) -> InMemoryTransport.response(204, ""));
+
+		Request request = new Request("http://service/api/items");
+		request.setTransport(transport);
+		assertEquals("api GET", fetch(request).thenPromise((response) -> response.text()).join());
+
+		request = new Request("http://service/index.html");
+		request.setTransport(transport);
+		assertEquals("root", fetch(request).thenPromise((response) -> response.text()).join());
+
+		request = new Request("http://service/api/items");
+		request.setMethod("DELETE");
+		request.setTransport(transport);
+		assertEquals(204, fetch(request).join().getStatus());
+
+		request = new Request("http://other/");
+		request.setTransport(transport);
+		assertEquals(404, fetch(request).join().getStatus());
+	}
+
+	@Test
+	public void testGlobalTransport() {
+		InMemoryTransport transport = new InMemoryTransport();
+		transport.route("http://service/", (req) -> {
+			throw new IllegalStateException("broken");
+		});
+		FetchTransport previous = Fetch.getTransport();
+		Fetch.setTransport(transport);
+		try {
+			Promise<Response> p = fetch("http://service/");
+			assertEquals(Status.REJECTED, p.getStatus());
+			assertEquals("broken", p.getError().getMessage());
+		} finally {
+			Fetch.setTransport(previous);
+		}
+	}
+
+	@Test
+	public void testRecordReplay() throws IOException {
+		AtomicInteger calls = new AtomicInteger();
+		InMemoryTransport live = new InMemoryTransport();
+		live.route("http://service/", (req) -> InMemoryTransport.response(200, "call " + calls.incrementAndGet()));
+
+		RecordReplayTransport transport = new RecordReplayTransport(live, RecordReplayTransport.Mode.RECORD);
+		Request request = new Request("http://service/counter");
+		request.setTransport(transport);
+		assertEquals("call 1", fetch(request).thenPromise((response) -> response.text()).join());
+		assertEquals("call 2", fetch(request).thenPromise((response) -> response.text()).join());
+		assertEquals(2, transport.size());
+
+		Path file = Files.createTempFile("recordings", ".json");
+		try {
+			transport.save(file);
+			RecordReplayTransport replay = new RecordReplayTransport();
+			replay.load(file);
+			request.setTransport(replay);
+			assertEquals("call 1", fetch(request).thenPromise((response) -> response.text()).join());
+			assertEquals("call 2", fetch(request).thenPromise((response) -> response.text()).join());
+			assertEquals("call 2", fetch(request).thenPromise((response) -> response.text()).join());
+			assertEquals(2, calls.get());
+
+			Request unknown = new Request("http://service/unknown");
+			unknown.setTransport(replay);
+			Promise<Response> p = fetch(unknown);
+			assertEquals(Status.REJECTED, p.getStatus());
+			assertTrue(p.getError() instanceof IOException);
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	@Test
+	public void testRecordReplayBodies() {
+		InMemoryTransport live = new InMemoryTransport();
+		live.route("http://service/",
+				(req) -> InMemoryTransport.response(200, "size " + req.getRequestBody().contentLength()));
+
+		RecordReplayTransport transport = new RecordReplayTransport(live, RecordReplayTransport.Mode.RECORD);
+		for (int size = 1; size <= 2; size++) {
+			fetch(upload(RequestBody.of(new byte[size]), transport)).join();
+		}
+		assertEquals(2, transport.size());
+
+		// bodies of bytes are told apart, not only string ones
+		transport.setMode(RecordReplayTransport.Mode.REPLAY);
+		for (int size = 2; size >= 1; size--) {
+			assertEquals("size " + size, fetch(upload(RequestBody.of(new byte[size]), transport))
+					.thenPromise((response) -> response.text()).join());
+		}
+
+		Promise<Response> p = fetch(upload(RequestBody.of(new ByteArrayInputStream(new byte[1])), transport));
+		assertEquals(Status.REJECTED, p.getStatus());
+		assertTrue(p.getError() instanceof IOException);
+	}
+
+	private static Request upload(RequestBody body, FetchTransport transport) {
+		Request request = new Request("http://service/upload");
+		request.setMethod("POST");
+		request.setBody(body);
+		request.setTransport(transport);
+		return request;
+	}
+}
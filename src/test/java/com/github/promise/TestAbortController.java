@@ -0,0 +1,166 @@
+package com.github.promise;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+public class TestAbortController {
+
+	/**
+	 * A promise sleeping for given time, recording whether it was interrupted
+	 */
+	private static Promise<Integer> sleeper(int value, int ms, AtomicBoolean interrupted, AbortSignal signal) {
+		return new Promise<>((resolve, reject) -> {
+			try {
+				Thread.sleep(ms);
+			} catch (InterruptedException e) {
+				interrupted.set(true);
+				return;
+			}
+			resolve.accept(value);
+		}, signal);
+	}
+
+	@Test
+	public void testAbort() throws InterruptedException {
+		AbortController controller = new AbortController();
+		AtomicBoolean interrupted = new AtomicBoolean(false);
+		Promise<Integer> p = sleeper(42, 1000, interrupted, controller.getSignal());
+		Promise<Integer> p2 = p.then((x) -> x + 1);
+		Thread.sleep(50);
+
+		controller.abort();
+		assertEquals(Status.REJECTED, p.getStatus());
+		assertTrue(p.getError() instanceof AbortException);
+		assertTrue(p.isCancelled());
+		assertEquals(Status.REJECTED, p2.getStatus());
+
+		Thread.sleep(50);
+		assertTrue(interrupted.get());
+	}
+
+	@Test
+	public void testAbortReason() {
+		AbortController controller = new AbortController();
+		Exception reason = new Exception("foo");
+		controller.abort(reason);
+		assertTrue(controller.getSignal().isAborted());
+
+		AtomicBoolean ran = new AtomicBoolean(false);
+		Promise<Integer> p = new Promise<>((resolve, reject) -> {
+			ran.set(true);
+		}, controller.getSignal());
+		assertEquals(Status.REJECTED, p.getStatus());
+		assertEquals(reason, p.getError());
+		assertFalse(ran.get());
+	}
+
+	@Test
+	public void testAbortNestedPromises() throws InterruptedException {
+		AbortController controller = new AbortController();
+		AtomicBoolean interrupted = new AtomicBoolean(false);
+		Promise<Integer> p = Promise.<Integer>on(Promise.getDefaultExecutor(), (resolve, reject) -> {
+			resolve.accept(42);
+		}, controller.getSignal()).thenPromise((x) -> sleeper(x, 1000, interrupted, AbortSignal.current()));
+		Thread.sleep(100);
+
+		controller.abort();
+		assertEquals(Status.REJECTED, p.getStatus());
+		Thread.sleep(50);
+		assertTrue(interrupted.get());
+	}
+
+	@Test
+	public void testRaceCancelsLosers() throws InterruptedException {
+		AtomicBoolean interrupted = new AtomicBoolean(false);
+		Promise<Integer> slow = sleeper(42, 1000, interrupted, null);
+		Promise<Integer> fast = sleeper(43, 10, new AtomicBoolean(), null);
+		Promise<Object> p = Promise.race(slow, fast);
+
+		assertEquals((Integer) 43, p.join());
+		Thread.sleep(50);
+		assertTrue(slow.isCancelled());
+		assertTrue(interrupted.get());
+	}
+
+	@Test
+	public void testPromiseTimeout() throws InterruptedException {
+		AtomicBoolean interrupted = new AtomicBoolean(false);
+		Promise<Integer> slow = sleeper(42, 1000, interrupted, null);
+		Promise<Integer> p = slow.timeout(100);
+		Promise<Integer> p2 = sleeper(43, 10, new AtomicBoolean(), null).timeout(100);
+
+		Promise.awaitAll(p, p2);
+		assertEquals(Status.REJECTED, p.getStatus());
+		assertTrue(p.getError() instanceof TimeoutException);
+		assertEquals((Integer) 43, p2.getValue());
+		Thread.sleep(50);
+		assertTrue(slow.isCancelled());
+		assertTrue(interrupted.get());
+	}
+
+	@Test
+	public void testWithDeadline() throws InterruptedException {
+		AtomicBoolean interrupted = new AtomicBoolean(false);
+		long[] remaining = new long[1];
+		Promise<Integer> p = Promise.<Integer>withDeadline(Instant.now().plusMillis(200), (resolve, reject) -> {
+			resolve.accept(42);
+		}).thenPromise((x) -> {
+			// the deadline flows into nested promises
+			remaining[0] = AbortSignal.current().remaining(TimeUnit.MILLISECONDS);
+			return sleeper(x, 1000, interrupted, AbortSignal.current());
+		});
+
+		Promise.awaitAll(p);
+		assertEquals(Status.REJECTED, p.getStatus());
+		assertTrue(p.getError() instanceof TimeoutException);
+		assertTrue(remaining[0] > 0 && remaining[0] <= 200);
+		Thread.sleep(50);
+		assertTrue(interrupted.get());
+	}
+
+	@Test
+	public void testAnyFollowsWhileListened() {
+		AbortController controller = new AbortController();
+		AbortSignal timeout = AbortSignal.timeout(60000);
+		AbortSignal any = AbortSignal.any(controller.getSignal(), timeout);
+		assertEquals(0, controller.getSignal().getListenerCount());
+
+		Runnable listener = () -> {
+		};
+		any.addAbortListener(listener);
+		assertEquals(1, controller.getSignal().getListenerCount());
+		assertEquals(1, timeout.getListenerCount());
+		any.removeAbortListener(listener);
+		assertEquals(0, controller.getSignal().getListenerCount());
+		assertEquals(0, timeout.getListenerCount());
+
+		// still aborted with its sources, when asked
+		assertFalse(any.isAborted());
+		controller.abort();
+		assertTrue(any.isAborted());
+		assertTrue(any.getReason() instanceof AbortException);
+	}
+
+	@Test
+	public void testWithDeadlineReleasesCurrent() throws InterruptedException {
+		AbortController controller = new AbortController();
+		Promise<Integer> p = new Promise<Integer>((resolve, reject) -> {
+			resolve.accept(1);
+		}, controller.getSignal()).thenPromise((x) -> Promise.<Integer>withDeadline(Instant.now().plusSeconds(60),
+				(resolve, reject) -> {
+					resolve.accept(x + 1);
+				}));
+
+		Promise.awaitAll(p);
+		assertEquals(Status.FULFILLED, p.getStatus());
+		Thread.sleep(50);
+		assertEquals(0, controller.getSignal().getListenerCount());
+	}
+}
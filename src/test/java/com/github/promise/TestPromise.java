@@ -1,13 +1,24 @@
 package com.github.promise;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.junit.Assume;
 import org.junit.Test;
 
 public class TestPromise {
@@ -138,4 +149,269 @@ public class TestPromise {
 		assertEquals(Status.FULFILLED, p.getStatus());
 		assertEquals((Integer) 43, p.getValue());
 	}
+
+	@Test
+	public void testExecutor() throws InterruptedException {
+		ThreadPoolExecutor pool = PromiseExecutors.newFixedThreadPool(2);
+		List<String> threadNames = new ArrayList<>();
+		Promise<Integer> p = Promise.<Integer>on(pool, (resolve, reject) -> {
+			threadNames.add(Thread.currentThread().getName());
+			resolve.accept(42);
+		}).then((x) -> {
+			threadNames.add(Thread.currentThread().getName());
+			return x + 1;
+		});
+		Thread.sleep(100);
+		pool.shutdown();
+
+		assertEquals(Status.FULFILLED, p.getStatus());
+		assertEquals((Integer) 43, p.getValue());
+		assertEquals(pool, p.getExecutor());
+		assertEquals(2, threadNames.size());
+		for (String name : threadNames) {
+			assertTrue(name.startsWith("promise4j-pool-"));
+		}
+	}
+
+	@Test
+	public void testVirtualThreads() throws InterruptedException {
+		Assume.assumeTrue(PromiseExecutors.isVirtualThreadsSupported());
+		List<String> threadNames = new ArrayList<>();
+		Promise<Integer> p = Promise.on(PromiseExecutors.newVirtualThreadPerTaskExecutor(), (resolve, reject) -> {
+			threadNames.add(Thread.currentThread().getName());
+			resolve.accept(42);
+		});
+		Thread.sleep(100);
+
+		assertEquals(Status.FULFILLED, p.getStatus());
+		assertEquals(1, threadNames.size());
+		assertTrue(threadNames.get(0).startsWith("promise4j-virtual-"));
+	}
+
+	@Test
+	public void testDoneHandlersOrder() throws InterruptedException {
+		AtomicInteger tasks = new AtomicInteger(0);
+		Executor threadPerTask = PromiseExecutors.newThreadPerTaskExecutor();
+		Executor executor = (runnable) -> {
+			tasks.incrementAndGet();
+			threadPerTask.execute(runnable);
+		};
+		Promise<Integer> p = Promise.on(executor, (resolve, reject) -> {
+			resolve.accept(42);
+		});
+		Thread.sleep(100);
+		tasks.set(0);
+
+		List<Integer> calls = new ArrayList<>();
+		for (int i = 0; i < 100; i++) {
+			final int n = i;
+			p.done((x) -> {
+				synchronized (calls) {
+					calls.add(n);
+				}
+			}, null);
+		}
+		// handlers are never called before done() returns
+		synchronized (calls) {
+			assertTrue(calls.size() < 100);
+		}
+		Thread.sleep(100);
+
+		assertEquals(100, calls.size());
+		for (int i = 0; i < 100; i++) {
+			assertEquals((Integer) i, calls.get(i));
+		}
+		// handlers are batched, not run one task each
+		assertTrue(tasks.get() < 100);
+	}
+
+	@Test
+	public void testConcurrentHandlers() throws InterruptedException {
+		for (int round = 0; round < 20; round++) {
+			ThreadPoolExecutor pool = PromiseExecutors.newFixedThreadPool(8);
+			AtomicInteger calls = new AtomicInteger(0);
+			Promise<Integer> p = Promise.on(pool, (resolve, reject) -> {
+				resolve.accept(42);
+			});
+			for (int i = 0; i < 1000; i++) {
+				pool.execute(() -> p.handle(p.new Handler((x) -> calls.incrementAndGet(), null)));
+			}
+			Thread.sleep(100);
+			pool.shutdown();
+
+			assertEquals(Status.FULFILLED, p.getStatus());
+			assertEquals(1000, calls.get());
+		}
+	}
+
+	@Test
+	public void testThenCatchFulfilled() throws InterruptedException {
+		Promise<Integer> p = Promise.resolve(42).thenCatch((err) -> {
+		});
+		Thread.sleep(100);
+
+		assertEquals(Status.FULFILLED, p.getStatus());
+		assertEquals((Integer) 42, p.getValue());
+	}
+
+	@Test
+	public void testThenPromiseRejected() throws InterruptedException {
+		Exception e = new RuntimeException("foo");
+		Promise<Integer> p = Promise.resolve(42).thenPromise((x) -> Promise.<Integer>reject(e));
+		Thread.sleep(100);
+
+		assertEquals(Status.REJECTED, p.getStatus());
+		assertEquals(e, p.getError());
+	}
+
+	private static Promise<Integer> countdown(int n) {
+		if (n == 0) {
+			return Promise.resolve(0);
+		}
+		return Promise.resolve(n - 1).thenPromise(TestPromise::countdown);
+	}
+
+	@Test
+	public void testInlineContinuations() {
+		Promise.setInlineContinuations(true);
+		try {
+			Thread caller = Thread.currentThread();
+			List<Thread> threads = new ArrayList<>();
+			Promise<Integer> p = Promise.resolve(42).then((x) -> {
+				threads.add(Thread.currentThread());
+				return x + 1;
+			}).then((x) -> {
+				threads.add(Thread.currentThread());
+				return x * 2;
+			});
+
+			// no need to wait
+			assertEquals(Status.FULFILLED, p.getStatus());
+			assertEquals((Integer) 86, p.getValue());
+			assertEquals(2, threads.size());
+			assertEquals(caller, threads.get(0));
+			assertEquals(caller, threads.get(1));
+
+			// deep recursion does not overflow the stack
+			Promise<Integer> deep = countdown(100000);
+			assertEquals(Status.FULFILLED, deep.getStatus());
+			assertEquals((Integer) 0, deep.getValue());
+		} finally {
+			Promise.setInlineContinuations(false);
+		}
+	}
+
+	@Test
+	public void testLongPendingChain() throws InterruptedException {
+		Promise<Integer> p = new ExamplePromise(0, 100);
+		Promise<Integer> last = p;
+		for (int i = 0; i < 100000; i++) {
+			last = last.then((x) -> x + 1);
+		}
+		Thread.sleep(1000);
+
+		assertEquals(Status.FULFILLED, last.getStatus());
+		assertEquals((Integer) 100000, last.getValue());
+	}
+
+	@Test
+	public void testToCompletableFuture() throws InterruptedException, ExecutionException {
+		CompletableFuture<Integer> c = new ExamplePromise(42, 100).toCompletableFuture();
+		assertEquals((Integer) 42, c.get());
+
+		Exception e = new RuntimeException("foo");
+		CompletableFuture<Integer> c2 = Promise.<Integer>reject(e).toCompletableFuture();
+		Thread.sleep(10);
+		assertTrue(c2.isCompletedExceptionally());
+	}
+
+	@Test
+	public void testFromCompletableFuture() throws InterruptedException {
+		CompletableFuture<Integer> c = new CompletableFuture<>();
+		Promise<Integer> p = Promise.from(c);
+		Promise<Integer> p2 = new Promise<>(c);
+		assertEquals(Status.PENDING, p.getStatus());
+
+		c.complete(42);
+		assertEquals(Status.FULFILLED, p.getStatus());
+		assertEquals((Integer) 42, p.getValue());
+		assertEquals((Integer) 42, p2.getValue());
+
+		Exception e = new RuntimeException("foo");
+		CompletableFuture<Integer> c2 = new CompletableFuture<>();
+		Promise<Integer> p3 = Promise.from(c2.thenApply((x) -> x + 1));
+		c2.completeExceptionally(e);
+		assertEquals(Status.REJECTED, p3.getStatus());
+		assertEquals(e, p3.getError());
+	}
+
+	@Test
+	public void testCompletionStage() throws InterruptedException, ExecutionException {
+		Promise<Integer> p = new ExamplePromise(42, 100);
+		CompletableFuture<Integer> c = p.thenApply((x) -> x + 1)
+				.thenCombine(Promise.resolve(2), (x, y) -> x * y)
+				.toCompletableFuture();
+		assertEquals((Integer) 86, c.get());
+	}
+
+	@Test
+	public void testJoin() {
+		Promise<Integer> p = new ExamplePromise(42, 100).then((x) -> x + 1);
+		assertEquals((Integer) 43, p.join());
+
+		Exception e = new RuntimeException("foo");
+		try {
+			Promise.reject(e).join();
+			fail();
+		} catch (CompletionException ex) {
+			assertEquals(e, ex.getCause());
+		}
+	}
+
+	@Test
+	public void testGetTimeout() throws InterruptedException, ExecutionException {
+		Promise<Integer> p = new ExamplePromise(42, 300);
+		try {
+			p.get(50, TimeUnit.MILLISECONDS);
+			fail();
+		} catch (TimeoutException ex) {
+			// expected
+		}
+		try {
+			assertEquals((Integer) 42, p.get(1, TimeUnit.SECONDS));
+		} catch (TimeoutException ex) {
+			fail();
+		}
+	}
+
+	@Test
+	public void testAwaitAll() throws InterruptedException {
+		Promise<Integer> p1 = new ExamplePromise(42, 100);
+		Promise<Integer> p2 = new ExamplePromise(43, 200);
+		Promise<Integer> p3 = Promise.reject(new RuntimeException("foo"));
+
+		assertFalse(Promise.awaitAll(10, TimeUnit.MILLISECONDS, p1, p2, p3));
+		Promise.awaitAll(p1, p2, p3);
+
+		assertEquals(Status.FULFILLED, p1.getStatus());
+		assertEquals(Status.FULFILLED, p2.getStatus());
+		assertEquals(Status.REJECTED, p3.getStatus());
+	}
+
+	@Test
+	public void testPollPending() throws InterruptedException, ExecutionException {
+		Promise<Integer> p = new ExamplePromise(42, 500);
+		for (int i = 0; i < 1000; i++) {
+			try {
+				p.get(1, TimeUnit.MICROSECONDS);
+				fail();
+			} catch (TimeoutException ex) {
+				// expected
+			}
+			assertFalse(Promise.awaitAll(1, TimeUnit.MICROSECONDS, p));
+		}
+		// a single handler unparks all waiters
+		assertTrue(p.getHandlerCount() <= 1);
+		assertEquals((Integer) 42, p.join());
+	}
 }
@@ -4,7 +4,10 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ThreadPoolExecutor;
 
 import org.junit.Test;
 
@@ -67,4 +70,50 @@ public class TestPromises {
 		assertEquals(Status.FULFILLED, p.getStatus());
 		assertTrue(p.getValue().equals(42) || p.getValue().equals(e));
 	}
+
+	@Test
+	public void testAllKeepsOrder() throws InterruptedException {
+		Promise<Integer> p1 = new ExamplePromise(42, 200);
+		Promise<Integer> p2 = new ExamplePromise(43, 10);
+		Promise<Integer> p3 = Promise.resolve(44);
+		Promise<List<Integer>> p = Promise.all(p1, p2, p3);
+
+		Thread.sleep(400);
+
+		assertEquals(Status.FULFILLED, p.getStatus());
+		assertEquals(Arrays.asList(42, 43, 44), p.getValue());
+	}
+
+	@Test
+	public void testAnyAllRejected() throws InterruptedException {
+		Exception e1 = new Exception("foo");
+		Exception e2 = new Exception("bar");
+		Promise<Integer> p = Promise.any(Promise.reject(e1), Promise.reject(e2));
+
+		Thread.sleep(100);
+
+		assertEquals(Status.REJECTED, p.getStatus());
+		assertTrue(p.getError() instanceof AggregateException);
+		assertEquals(Arrays.asList(e1, e2), ((AggregateException) p.getError()).getExceptions());
+	}
+
+	@Test
+	public void testAllDoesNotBlockThreads() throws InterruptedException {
+		// a single thread is enough, as long as no combinator waits on it
+		ThreadPoolExecutor pool = PromiseExecutors.newFixedThreadPool(1);
+		List<Promise<List<Integer>>> fanOuts = new ArrayList<>();
+		for (int i = 0; i < 100; i++) {
+			Promise<Integer> p1 = Promise.on(pool, (resolve, reject) -> resolve.accept(1));
+			Promise<Integer> p2 = Promise.on(pool, (resolve, reject) -> resolve.accept(2));
+			fanOuts.add(Promise.all(p1, p2));
+		}
+
+		Thread.sleep(200);
+		pool.shutdown();
+
+		for (Promise<List<Integer>> p : fanOuts) {
+			assertEquals(Status.FULFILLED, p.getStatus());
+			assertEquals(Arrays.asList(1, 2), p.getValue());
+		}
+	}
 }
@@ -0,0 +1,124 @@
+package com.github.promise;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class TestRetry {
+
+	/**
+	 * A supplier of promises failing <code>failures</code> times, then resolving
+	 * the number of attempts
+	 */
+	private static Promise<Integer> flaky(AtomicInteger attempts, int failures) {
+		int n = attempts.incrementAndGet();
+		if (n <= failures) {
+			return Promise.reject(new IOException("attempt " + n));
+		}
+		return Promise.resolve(n);
+	}
+
+	@Test
+	public void testRetrySucceeds() {
+		AtomicInteger attempts = new AtomicInteger();
+		RetryPolicy policy = new RetryPolicy(5, 10, 100);
+		Promise<Integer> p = Promise.retry(() -> flaky(attempts, 2), policy);
+		assertEquals(3, (int) p.join());
+		assertEquals(3, attempts.get());
+	}
+
+	@Test
+	public void testRetryGivesUp() throws InterruptedException {
+		AtomicInteger attempts = new AtomicInteger();
+		RetryPolicy policy = new RetryPolicy(3, 10, 100);
+		policy.setJitter(RetryPolicy.Jitter.DECORRELATED);
+		Promise<Integer> p = Promise.retry(() -> flaky(attempts, 10), policy);
+		Promise.awaitAll(p);
+		assertEquals(Status.REJECTED, p.getStatus());
+		assertEquals("attempt 3", p.getError().getMessage());
+		assertEquals(3, attempts.get());
+	}
+
+	@Test
+	public void testRetryOn() throws InterruptedException {
+		AtomicInteger attempts = new AtomicInteger();
+		RetryPolicy policy = new RetryPolicy(5, 10, 100);
+		policy.setRetryOn((error) -> !(error instanceof IOException));
+		Promise<Integer> p = Promise.retry(() -> flaky(attempts, 10), policy);
+		Promise.awaitAll(p);
+		assertEquals(Status.REJECTED, p.getStatus());
+		assertEquals(1, attempts.get());
+	}
+
+	@Test
+	public void testBackoff() throws InterruptedException {
+		AtomicInteger attempts = new AtomicInteger();
+		RetryPolicy policy = new RetryPolicy(4, 50, 1000);
+		policy.setJitter(RetryPolicy.Jitter.NONE);
+		long start = System.currentTimeMillis();
+		Promise<Integer> p = Promise.retry(() -> flaky(attempts, 3), policy);
+		assertEquals(4, (int) p.join());
+		// 50 + 100 + 200 ms
+		assertTrue(System.currentTimeMillis() - start >= 340);
+	}
+
+	@Test
+	public void testDelays() {
+		RetryPolicy policy = new RetryPolicy(100, 100, 5000);
+		policy.setJitter(RetryPolicy.Jitter.NONE);
+		assertEquals(100, policy.nextDelay(0, 0));
+		assertEquals(800, policy.nextDelay(3, 0));
+		assertEquals(5000, policy.nextDelay(10, 0));
+		assertEquals(5000, policy.nextDelay(70, 0));
+
+		policy.setJitter(RetryPolicy.Jitter.FULL);
+		for (int i = 0; i < 100; i++) {
+			long delay = policy.nextDelay(3, 0);
+			assertTrue(delay >= 0 && delay <= 800);
+		}
+
+		policy.setJitter(RetryPolicy.Jitter.DECORRELATED);
+		long delay = 0;
+		for (int i = 0; i < 100; i++) {
+			long next = policy.nextDelay(i, delay);
+			assertTrue(next >= 100 && next <= Math.min(5000, Math.max(100, delay * 3)));
+			delay = next;
+		}
+	}
+
+	@Test
+	public void testBudget() throws InterruptedException {
+		RetryBudget budget = new RetryBudget(4, 0.5);
+		AtomicInteger attempts = new AtomicInteger();
+		RetryPolicy policy = new RetryPolicy(10, 1, 10);
+		policy.setBudget(budget);
+		Promise<Integer> p = Promise.retry(() -> flaky(attempts, 100), policy);
+		Promise.awaitAll(p);
+		assertEquals(Status.REJECTED, p.getStatus());
+		// 4 -> 3 -> 2 (not more than half): no retry after second failure
+		assertEquals(2, attempts.get());
+
+		budget.onSuccess();
+		budget.onSuccess();
+		assertEquals(3, budget.getTokens(), 0.001);
+	}
+
+	@Test
+	public void testCancelStopsRetrying() throws InterruptedException {
+		AtomicInteger attempts = new AtomicInteger();
+		RetryPolicy policy = new RetryPolicy(100, 100, 100);
+		policy.setJitter(RetryPolicy.Jitter.NONE);
+		Promise<Integer> p = Promise.retry(() -> flaky(attempts, 100), policy);
+		Thread.sleep(150);
+		assertTrue(p.cancel(true));
+		int count = attempts.get();
+		Thread.sleep(300);
+		assertEquals(count, attempts.get());
+		assertFalse(p.getStatus() == Status.FULFILLED);
+	}
+}
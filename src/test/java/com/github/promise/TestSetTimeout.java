@@ -1,9 +1,18 @@
 package com.github.promise;
 
 import static com.github.promise.SetTimeout.*;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import org.junit.Test;
 
 public class TestSetTimeout {
@@ -33,4 +42,123 @@ public class TestSetTimeout {
 		Thread.sleep(1100);
 		assertFalse(target[0]);
 	}
+
+	@Test
+	public void testSchedule() throws InterruptedException {
+		boolean[] target = new boolean[] { false };
+		Timeout timeout = schedule(() -> {
+			target[0] = true;
+		}, 500);
+		assertFalse(target[0]);
+		Thread.sleep(50);
+		assertFalse(target[0]);
+		Thread.sleep(600);
+		assertTrue(target[0]);
+		assertTrue(timeout.isExpired());
+	}
+
+	@Test
+	public void testClearScheduledTimeout() throws InterruptedException {
+		boolean[] target = new boolean[] { false };
+		Timeout timeout = schedule(() -> {
+			target[0] = true;
+		}, 200);
+		clearTimeout(timeout);
+
+		Thread.sleep(300);
+		assertFalse(target[0]);
+		assertTrue(timeout.isCancelled());
+		assertFalse(timeout.cancel());
+	}
+
+	@Test
+	public void testIntervalThreads() throws InterruptedException {
+		HashedWheelTimer timer = new HashedWheelTimer(1, TimeUnit.MILLISECONDS, 64, null);
+		Set<Thread> threads = Collections.newSetFromMap(new ConcurrentHashMap<>());
+		AtomicInteger ticks = new AtomicInteger();
+		CountDownLatch done = new CountDownLatch(1);
+		Timeout interval = timer.scheduleAtFixedRate(() -> {
+			threads.add(Thread.currentThread());
+			if (ticks.incrementAndGet() == 100) {
+				done.countDown();
+			}
+		}, 0, 2, TimeUnit.MILLISECONDS);
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		interval.cancel();
+		timer.stop();
+		// ticks run on the shared dispatch threads, not on a new thread each
+		assertTrue(threads.toString(), threads.size() <= Math.max(2, Runtime.getRuntime().availableProcessors()));
+		for (Thread thread : threads) {
+			assertTrue(thread.getName(), thread.getName().startsWith("promise4j-timer-dispatch-"));
+		}
+	}
+
+	@Test
+	public void testManyTimeouts() throws InterruptedException {
+		ThreadPoolExecutor pool = PromiseExecutors.newFixedThreadPool(2);
+		HashedWheelTimer timer = new HashedWheelTimer(1, TimeUnit.MILLISECONDS, 64, pool);
+		AtomicInteger count = new AtomicInteger(0);
+		for (int i = 0; i < 10000; i++) {
+			// some timeouts need more than one round of the wheel
+			timer.schedule(count::incrementAndGet, i % 200, TimeUnit.MILLISECONDS);
+		}
+		Thread.sleep(500);
+		timer.stop();
+		pool.shutdown();
+
+		assertEquals(0, timer.pendingTimeouts());
+		assertEquals(10000, count.get());
+	}
+
+	@Test
+	public void testSetInterval() throws InterruptedException {
+		AtomicInteger count = new AtomicInteger(0);
+		Timeout interval = setInterval(count::incrementAndGet, 100);
+		Thread.sleep(1050);
+		clearInterval(interval);
+		int runs = count.get();
+		Thread.sleep(300);
+
+		assertTrue("runs: " + runs, runs >= 9 && runs <= 11);
+		assertEquals(runs, count.get());
+		assertTrue(interval.isCancelled());
+	}
+
+	@Test
+	public void testSetIntervalSkipsOverruns() throws InterruptedException {
+		AtomicInteger count = new AtomicInteger(0);
+		Timeout interval = setInterval(() -> {
+			count.incrementAndGet();
+			try {
+				Thread.sleep(250);
+			} catch (InterruptedException e) {
+				return;
+			}
+		}, 100);
+		Thread.sleep(1050);
+		clearInterval(interval);
+
+		// runs at 100, 400, 700, 1000 ms; others overlap a running one
+		int runs = count.get();
+		assertTrue("runs: " + runs, runs >= 3 && runs <= 5);
+	}
+
+	@Test
+	public void testSetIntervalWithFixedDelay() throws InterruptedException {
+		AtomicInteger count = new AtomicInteger(0);
+		Timeout interval = setIntervalWithFixedDelay(() -> {
+			count.incrementAndGet();
+			try {
+				Thread.sleep(100);
+			} catch (InterruptedException e) {
+				return;
+			}
+		}, 100);
+		Thread.sleep(1050);
+		clearInterval(interval);
+
+		// runs start at 100, 300, 500, 700, 900 ms
+		int runs = count.get();
+		assertTrue("runs: " + runs, runs >= 4 && runs <= 6);
+	}
 }